@@ -0,0 +1,103 @@
+package trailwebwalk;
+
+import java.util.Properties;
+import java.util.logging.Logger;
+import trailwebwalk.ui.NullDisplay;
+
+/**
+ *
+ * @author al
+ * Walks the trail once without a UI (Main --batch) and reports how it went.
+ * The walk goes at full speed unless the dwell (SleepTime) is asked for.
+ * Exit status:
+ *   0 - the trail was walked to the end.
+ *   1 - the walk failed (too many failed steps).
+ *   2 - the walk stopped for some other reason (e.g. an error).
+ *   3 - there is nothing to walk (empty or missing trail).
+ */
+public class BatchWalk {
+
+    public static final int EXIT_COMPLETE = 0;
+    public static final int EXIT_FAILED = 1;
+    public static final int EXIT_STOPPED = 2;
+    public static final int EXIT_NO_TRAIL = 3;
+
+    /**
+     * Walks the trail on this thread.
+     * @param theController - controller not yet started.
+     * @param shouldDwell - whether to wait SleepTime between pages.
+     * @return - the exit status.
+     */
+    public static int walk(WebWalkController theController,
+            boolean shouldDwell) {
+        NullDisplay theDisplay = new NullDisplay();
+        theController.setNotificationDisplay(theDisplay);
+        theController.setPlayPauseDisplay(theDisplay);
+        theController.setListItemSelector(theDisplay);
+        theController.setFullSpeed(!shouldDwell);
+
+        int theTrailSize = theController.getTrailItems().size();
+
+        if (theTrailSize == 0) {
+            System.out.println("No trail to walk");
+            return EXIT_NO_TRAIL;
+        }
+
+        long theStartTime = System.currentTimeMillis();
+        theController.startUp();
+        theController.run();
+        long theElapsedMillis = Math.max(1, System.currentTimeMillis() - theStartTime);
+
+        WebWalkRunner.WalkStatus theStatus = theController.getLastOutcome();
+        WalkMetrics theMetrics = theController.getMetrics();
+        int theSteps = theMetrics.getStepCount();
+
+        System.out.println("Walk " + ((theStatus == null) ? "stopped" : theStatus.toString())
+                + " - " + theDisplay.getText());
+        System.out.println("Trail position " + (theController.getCurrentTrailPos() + 1) + " of " + theTrailSize);
+        System.out.println("Steps " + theSteps + ", failed " + theMetrics.getFailedStepCount()
+                + ", pages/minute " + (theSteps * 60000L / theElapsedMillis)
+                + ", elapsed " + (theElapsedMillis / 1000) + "s");
+        System.out.println("Load ms mean " + theMetrics.getMeanLoadMillis()
+                + ", max " + theMetrics.getMaxLoadMillis());
+        System.out.println(theMetrics);
+
+        if (theStatus == WebWalkRunner.WalkStatus.complete) {
+            return EXIT_COMPLETE;
+        }
+
+        if (theStatus == WebWalkRunner.WalkStatus.failedStep) {
+            return EXIT_FAILED;
+        }
+
+        return EXIT_STOPPED;
+    }
+
+    /**
+     * Walks the trail with a new controller and shuts it down.
+     * @param properties - as for the UI.
+     * @param theLogger - valid logger.
+     * @param shouldDwell - whether to wait SleepTime between pages.
+     * @return - the exit status.
+     */
+    public static int walk(Properties properties,
+            Logger theLogger,
+            boolean shouldDwell) {
+        final WebWalkController theController = new WebWalkController(properties, theLogger);
+        Thread theShutdownHook = new Thread() {
+
+            @Override
+            public void run() {
+                theController.shutdown();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(theShutdownHook);
+
+        try {
+            return walk(theController, shouldDwell);
+        } finally {
+            theController.shutdown();
+            Runtime.getRuntime().removeShutdownHook(theShutdownHook);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package trailwebwalk;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.browser.Browser;
+
+/**
+ *
+ * @author al
+ * Replaces the walker's browser when its memory has grown too much (firefox's
+ * resident memory keeps climbing on long walks).
+ * The browser resident memory (from /proc), the JVM heap and the number of
+ * pages loaded are sampled at each slide boundary. The heap limit is on its
+ * growth since the last recycle (recycling does not give back heap, so a
+ * limit on its size would recycle at every boundary once passed). When a limit is passed a new
+ * browser is started in the background, it is swapped in at the next slide
+ * boundary after it is ready and then the old one is quit - so there is no
+ * gap in the slide show.
+ * A limit of 0 means that it is not checked.
+ * @invariant - the runner is valid.
+ * @invariant - the Logger is a valid logger.
+ */
+public class BrowserRecycler {
+
+    private final WebWalkRunner theRunner;
+    private final Logger theLogger;
+    private final long browserLimitKB;
+    private final long heapLimitKB;
+    private final int pageLimit;
+    private final ExecutorService exec;
+    private Future<Browser> warmBrowser = null;
+    private long heapBaseKB = -1; // heap when last recycled (-1 until sampled)
+
+    /**
+     *
+     * @param properties - RecycleBrowserMB, RecycleHeapMB and RecyclePageCount
+     * are used.
+     * @param theRunner - valid runner
+     * @param newLogger - valid logger.
+     */
+    public BrowserRecycler(Properties properties,
+            WebWalkRunner theRunner,
+            Logger newLogger) {
+        this.theRunner = theRunner;
+        this.theLogger = newLogger;
+        browserLimitKB = Long.parseLong(properties.getProperty("RecycleBrowserMB", "0").trim()) * 1024;
+        // growth since the last recycle
+        heapLimitKB = Long.parseLong(properties.getProperty("RecycleHeapMB", "0").trim()) * 1024;
+        pageLimit = Integer.parseInt(properties.getProperty("RecyclePageCount", "0").trim());
+        exec = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     *
+     * @return - whether any limit has been set.
+     */
+    public boolean isEnabled() {
+        return browserLimitKB > 0 || heapLimitKB > 0 || pageLimit > 0;
+    }
+
+    /**
+     * To be called by the walker thread between slides.
+     * Either swaps in a browser that has been warmed up or (if a limit has been
+     * passed) starts warming one up.
+     * @precon - as per invariant
+     * @postcon - as per invariant
+     */
+    public synchronized void atSlideBoundary() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (warmBrowser != null) {
+            if (warmBrowser.isDone()) {
+                swapInWarmBrowser();
+            }
+        } else {
+            if (shouldRecycle()) {
+                warmBrowser = exec.submit(new WarmUpWorker(theRunner));
+            }
+        }
+    }
+
+    /**
+     * Gets rid of any browser that has been (or is being) warmed up, e.g. when
+     * the walk is stopped.
+     */
+    public synchronized void discardWarmBrowser() {
+        if (warmBrowser != null) {
+            final Future<Browser> theFuture = warmBrowser;
+            warmBrowser = null;
+
+            // queued after the warm up so will quit it when it is ready
+            exec.submit(new Runnable() {
+
+                public void run() {
+                    quitBrowser(getWarmBrowser(theFuture));
+                }
+            });
+        }
+    }
+
+    /**
+     * Discards any warm browser and stops the background thread.
+     */
+    public synchronized void shutdown() {
+        discardWarmBrowser();
+        exec.shutdown();
+    }
+
+    private void swapInWarmBrowser() {
+        Browser theNewBrowser = getWarmBrowser(warmBrowser);
+        warmBrowser = null;
+
+        if (theNewBrowser != null) {
+            final Browser theOldBrowser = theRunner.swapBrowser(theNewBrowser);
+
+            if (theOldBrowser != theNewBrowser) {
+                theLogger.log(Level.INFO, "Recycled browser");
+                heapBaseKB = -1;
+            }
+
+            exec.submit(new Runnable() {
+
+                public void run() {
+                    quitBrowser(theOldBrowser);
+                }
+            });
+        }
+    }
+
+    /**
+     *
+     * @return - whether any of the limits have been passed.
+     */
+    private boolean shouldRecycle() {
+        Browser theBrowser = theRunner.getBrowser();
+
+        if (theBrowser == null) {
+            return false;
+        }
+
+        long browserKB = theBrowser.getResidentKB();
+        Runtime theRuntime = Runtime.getRuntime();
+        long heapKB = (theRuntime.totalMemory() - theRuntime.freeMemory()) / 1024;
+        int thePages = theBrowser.getPagesLoaded();
+
+        if (heapBaseKB < 0) {
+            heapBaseKB = heapKB;
+        }
+
+        theLogger.log(Level.FINE, "Browser {0}kB, heap {1}kB, pages {2}",
+                new Object[]{browserKB, heapKB, thePages});
+
+        if (browserLimitKB > 0 && browserKB > browserLimitKB) {
+            theLogger.log(Level.INFO, "Browser memory {0}kB over limit - recycling", browserKB);
+            return true;
+        }
+
+        if (heapLimitKB > 0 && heapKB - heapBaseKB > heapLimitKB) {
+            theLogger.log(Level.INFO, "Heap grown to {0}kB since the last recycle - recycling", heapKB);
+            return true;
+        }
+
+        if (pageLimit > 0 && thePages >= pageLimit) {
+            theLogger.log(Level.INFO, "{0} pages loaded - recycling", thePages);
+            return true;
+        }
+
+        return false;
+    }
+
+    private Browser getWarmBrowser(Future<Browser> theFuture) {
+        try {
+            return theFuture.get();
+        } catch (InterruptedException ex) {
+            theLogger.log(Level.WARNING, null, ex);
+        } catch (ExecutionException ex) {
+            theLogger.log(Level.WARNING, "Failed to warm up browser", ex);
+        }
+
+        return null;
+    }
+
+    private void quitBrowser(Browser theBrowser) {
+        if (theBrowser != null) {
+            theRunner.discardBrowser(theBrowser);
+        }
+    }
+}
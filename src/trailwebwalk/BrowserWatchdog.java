@@ -0,0 +1,38 @@
+package trailwebwalk;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author al
+ * Heartbeat for the browser used by the walker.
+ * Run periodically (off the walker thread), it checks the browser processes
+ * and if they have gone it respawns the browser at the current trail
+ * position so that unattended walks recover without a restart.
+ * @invariant - the runner is valid.
+ * @invariant - the Logger is a valid logger.
+ */
+public class BrowserWatchdog implements Runnable {
+
+    private final WebWalkRunner theRunner;
+    private final Logger theLogger;
+
+    public BrowserWatchdog(WebWalkRunner theRunner,
+            Logger newLogger) {
+        this.theRunner = theRunner;
+        this.theLogger = newLogger;
+    }
+
+    public void run() {
+        try {
+            if (!theRunner.isBrowserProcessAlive()) {
+                theLogger.log(Level.WARNING, "Heartbeat - browser not responding");
+                theRunner.respawnIfDead();
+            }
+        } catch (Exception ex) {
+            // must not throw or the scheduled heartbeat is cancelled
+            theLogger.log(Level.SEVERE, "Heartbeat failed to respawn browser", ex);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package trailwebwalk;
+
+/**
+ *
+ * @author al
+ * Decides how much optional work a step should leave out so that the walk
+ * keeps to its cadence. Only the optional work is timed (the page load can't
+ * be shed so would keep a slow site shedding for good). Each step whose
+ * optional work takes longer than the budget sheds the
+ * next piece of work (in the order of ShedLevel); once steps have been well
+ * inside the budget for a few steps in a row, the last piece shed is taken
+ * back on.
+ * Synchronised as steps are recorded by the walker thread and the level can
+ * be read by others.
+ * @invariant - budgetMillis > 0.
+ */
+public class LoadShedder {
+
+    // what is left out - each level also leaves out everything before it
+    public enum ShedLevel {
+
+        none,
+        skipDedup,       // screenshots are not compared with recent ones
+        thumbnailOnly,   // only a thumbnail of each screenshot is kept
+        skipCapture,     // no screenshots
+        skipTargetClick  // the trail item's target is not clicked
+    };
+    private static final int STEPS_TO_RECOVER = 3;
+    private final long budgetMillis;
+    private ShedLevel theLevel = ShedLevel.none;
+    private int fastStepCount = 0;
+
+    /**
+     *
+     * @param budgetMillis - how long a step should take at most.
+     */
+    public LoadShedder(long budgetMillis) {
+        this.budgetMillis = Math.max(1, budgetMillis);
+    }
+
+    /**
+     * Records how long a step took and adjusts the level.
+     * @param stepMillis
+     * @return - the level for the next step.
+     */
+    public synchronized ShedLevel recordStep(long stepMillis) {
+        ShedLevel[] theLevels = ShedLevel.values();
+
+        if (stepMillis > budgetMillis) {
+            fastStepCount = 0;
+
+            if (theLevel.ordinal() < theLevels.length - 1) {
+                theLevel = theLevels[theLevel.ordinal() + 1];
+            }
+        } else if (stepMillis < budgetMillis / 2) {
+            ++fastStepCount;
+
+            if (fastStepCount >= STEPS_TO_RECOVER && theLevel != ShedLevel.none) {
+                theLevel = theLevels[theLevel.ordinal() - 1];
+                fastStepCount = 0;
+            }
+        } else {
+            fastStepCount = 0;
+        }
+
+        return theLevel;
+    }
+
+    /**
+     *
+     * @param theWork - the level at which the work is left out.
+     * @return - whether the work is being left out.
+     */
+    public synchronized boolean isShedding(ShedLevel theWork) {
+        return theLevel.ordinal() >= theWork.ordinal();
+    }
+
+    public synchronized ShedLevel getLevel() {
+        return theLevel;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+}
@@ -5,6 +5,9 @@
 
 package trailwebwalk;
 
+import trailwebwalk.cluster.WalkCoordinator;
+import trailwebwalk.cluster.WalkWorker;
+import trailwebwalk.control.WalkControlServer;
 import trailwebwalk.ui.WebTrailWalkUI;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -28,12 +31,32 @@ public class Main {
     // TODO -
     // Dead end page for case when it is a form
     public static void main(String[] args) throws IOException {
-        String[] ids = {"Pause24.gif", "Play24.gif", "Stop24.gif", "Next24.gif", "Prev24.gif"};
-        BufferedImage[] images = new BufferedImage[ids.length];
-        for (int j = 0; j < images.length; j++) {
-            images[j] = ImageIO.read(new File(ids[j]));
+        boolean isBatch = false;
+        boolean isMultiWalk = false;
+        boolean isCoordinator = false;
+        boolean isWorker = false;
+        boolean isControlled = false;
+        boolean shouldDwell = false;
+
+        for (String theArg : args) {
+            if (theArg.equals("--batch")) {
+                isBatch = true;
+            } else if (theArg.equals("--dwell")) {
+                shouldDwell = true;
+            } else if (theArg.equals("--walks")) {
+                isMultiWalk = true;
+            } else if (theArg.equals("--coordinator")) {
+                isCoordinator = true;
+            } else if (theArg.equals("--worker")) {
+                isWorker = true;
+            } else if (theArg.equals("--control")) {
+                isControlled = true;
+            } else {
+                System.out.println("usage: Main [--batch [--dwell] | --walks | --coordinator | --worker [--dwell] | --control]");
+                System.exit(BatchWalk.EXIT_STOPPED);
+            }
         }
-        
+
         Properties properties = new Properties();
         FileInputStream is = null;
         
@@ -53,8 +76,66 @@ public class Main {
         }
 
         Logger theLogger = Main.makeLogger();
+
+        if (isBatch) {
+            // no UI (or display) - walk once and exit with the outcome
+            System.exit(BatchWalk.walk(properties, theLogger, shouldDwell));
+        }
+
+        if (isCoordinator) {
+            // hands out ranges of the trail to workers and gathers the results
+            System.exit(WalkCoordinator.coordinate(properties, theLogger));
+        }
+
+        if (isWorker) {
+            // walks the ranges the coordinator (ClusterCoordinator) leases to it
+            System.exit(WalkWorker.work(properties, theLogger, shouldDwell));
+        }
+
+        if (isControlled) {
+            // walkers for the trails in TrailFiles driven over HTTP (ControlPort)
+            final WalkControlServer theServer = WalkControlServer.serve(properties, theLogger);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+
+                @Override
+                public void run() {
+                    theServer.shutdown();
+                }
+            });
+            return;
+        }
+
+        if (isMultiWalk) {
+            // the trails in TrailFiles walked side by side without a UI
+            final WalkSupervisor theSupervisor = new WalkSupervisor(properties, theLogger);
+            Thread theShutdownHook = new Thread() {
+
+                @Override
+                public void run() {
+                    theSupervisor.shutdown();
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(theShutdownHook);
+            int theResult = theSupervisor.runAll();
+            Runtime.getRuntime().removeShutdownHook(theShutdownHook);
+            System.exit(theResult);
+        }
+
+        String[] ids = {"Pause24.gif", "Play24.gif", "Stop24.gif", "Next24.gif", "Prev24.gif"};
+        BufferedImage[] images = new BufferedImage[ids.length];
+        for (int j = 0; j < images.length; j++) {
+            images[j] = ImageIO.read(new File(ids[j]));
+        }
+
         WebTrailWalkUI theUI = new WebTrailWalkUI(images);
-        WebWalkController theController = new WebWalkController(properties, theLogger);
+        final WebWalkController theController = new WebWalkController(properties, theLogger);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                theController.shutdown();
+            }
+        });
         theUI.setController(theController);
         theController.startUp();
         theUI.start();
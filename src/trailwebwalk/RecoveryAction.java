@@ -0,0 +1,16 @@
+package trailwebwalk;
+
+/**
+ *
+ * @author al
+ * What the walk does when a page fails (see RecoveryPolicy).
+ */
+public enum RecoveryAction {
+
+    refresh, // the page is reloaded straight away
+    retry, // back to the last good page, the page is tried again after a backoff
+    skip, // straight on to the next item
+    requeue, // straight on - the page is checked in the background and shown at the end if it comes back
+    goBack, // back to the last good page and on from there (the walk fails if that does too)
+    fail // the walk fails
+};
@@ -0,0 +1,122 @@
+package trailwebwalk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ *
+ * @author al
+ * Which RecoveryAction is taken for each failure status, and how long to
+ * back off between attempts. Set from the properties:
+ *   Recovery.<status> = action[,fallback] - the fallback is taken once the
+ *     page has failed more than RecoveryRetries times (refresh, retry and
+ *     requeue only, default fail).
+ *   RecoveryRetries - attempts before the fallback.
+ *   RecoveryBackoffMillis - the first backoff (doubled for each attempt).
+ *   RecoveryMaxBackoffMillis - the most a backoff can be.
+ *   RecoveryJitterPercent - each backoff is moved by up to this much either
+ *     way so that walks do not retry in step.
+ * Without properties a failed page is gone back from (a timed out page is
+ * refreshed once first) and the walk fails if that fails too, as before there
+ * was a policy.
+ * @invariant - every failure status has an action.
+ */
+public class RecoveryPolicy {
+
+    private final Map<WebWalkRunner.WalkStatus, RecoveryAction> theActions =
+            new EnumMap<WebWalkRunner.WalkStatus, RecoveryAction>(WebWalkRunner.WalkStatus.class);
+    private final Map<WebWalkRunner.WalkStatus, RecoveryAction> theFallbacks =
+            new EnumMap<WebWalkRunner.WalkStatus, RecoveryAction>(WebWalkRunner.WalkStatus.class);
+    private final int retries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final int jitterPercent;
+    private final Random theRandom = new Random();
+
+    /**
+     *
+     * @param properties - as above.
+     * @throws IllegalArgumentException - if an action is not known.
+     */
+    public RecoveryPolicy(Properties properties) {
+        setActions(properties, WebWalkRunner.WalkStatus.pageTimedOut, "refresh,goBack");
+        setActions(properties, WebWalkRunner.WalkStatus.pageNotFound, "goBack");
+        setActions(properties, WebWalkRunner.WalkStatus.permissionDenied, "goBack");
+        retries = Integer.parseInt(properties.getProperty("RecoveryRetries", "1").trim());
+        backoffMillis = Long.parseLong(properties.getProperty("RecoveryBackoffMillis", "0").trim());
+        maxBackoffMillis = Long.parseLong(properties.getProperty("RecoveryMaxBackoffMillis", "30000").trim());
+        jitterPercent = Integer.parseInt(properties.getProperty("RecoveryJitterPercent", "0").trim());
+    }
+
+    private void setActions(Properties properties,
+            WebWalkRunner.WalkStatus theStatus,
+            String theDefault) {
+        String[] theWords = properties.getProperty("Recovery." + theStatus, theDefault).split(",");
+        theActions.put(theStatus, RecoveryAction.valueOf(theWords[0].trim()));
+        theFallbacks.put(theStatus, (theWords.length > 1)
+                ? RecoveryAction.valueOf(theWords[1].trim()) : RecoveryAction.fail);
+    }
+
+    /**
+     *
+     * @param theStatus
+     * @return - whether the status is a failure that the policy recovers
+     * from.
+     */
+    public boolean isRecoverable(WebWalkRunner.WalkStatus theStatus) {
+        return theActions.containsKey(theStatus);
+    }
+
+    /**
+     *
+     * @param theStatus - a recoverable status.
+     * @param theAttempt - how many times the page has now failed (from 1).
+     * @return - what to do.
+     */
+    public RecoveryAction getAction(WebWalkRunner.WalkStatus theStatus,
+            int theAttempt) {
+        RecoveryAction theAction = theActions.get(theStatus);
+
+        if ((theAction == RecoveryAction.refresh || theAction == RecoveryAction.retry
+                || theAction == RecoveryAction.requeue) && theAttempt > retries) {
+            return theFallbacks.get(theStatus);
+        }
+
+        return theAction;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     *
+     * @param theAttempt - how many times the page has failed (from 1).
+     * @return - how long to wait before trying it again.
+     */
+    public long getBackoffMillis(int theAttempt) {
+        long theBackoff = backoffMillis;
+
+        for (int i = 1; i < theAttempt && theBackoff < maxBackoffMillis; ++i) {
+            theBackoff *= 2;
+        }
+
+        theBackoff = Math.min(theBackoff, maxBackoffMillis);
+
+        if (jitterPercent > 0) {
+            double theJitter = (theRandom.nextDouble() * 2 - 1) * jitterPercent / 100.0;
+            theBackoff += (long) (theBackoff * theJitter);
+        }
+
+        return Math.max(0, theBackoff);
+    }
+
+    @Override
+    public String toString() {
+        return "RecoveryPolicy{" + theActions + ", fallbacks=" + theFallbacks
+                + ", retries=" + retries + ", backoffMs=" + backoffMillis
+                + "-" + maxBackoffMillis + ", jitter=" + jitterPercent + "%}";
+    }
+}
@@ -0,0 +1,124 @@
+package trailwebwalk;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.capture.HeadCheck;
+
+/**
+ *
+ * @author al
+ * Trail items skipped by the walk (RecoveryAction.requeue) that are checked
+ * in the background with HEAD requests, backing off as per the recovery
+ * policy. An item that answers is ready to be shown again (at the end of the
+ * trail); one that is still failing after the policy's retries is given up.
+ * @invariant - the Logger is a valid logger.
+ */
+public class RequeuedItems {
+
+    private static final int HEAD_TIMEOUT = 5000;
+    private static final int HTTP_ERRORS = 400; // statuses from here on are failures
+    private final RecoveryPolicy thePolicy;
+    private final Logger theLogger;
+    private final ScheduledExecutorService checkExec;
+    private final ConcurrentLinkedQueue<Integer> theReady = new ConcurrentLinkedQueue<Integer>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     *
+     * @param thePolicy - for the backoff and the number of checks.
+     * @param newLogger - valid logger.
+     */
+    public RequeuedItems(RecoveryPolicy thePolicy,
+            Logger newLogger) {
+        this.thePolicy = thePolicy;
+        theLogger = newLogger;
+        checkExec = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable theTask) {
+                Thread theThread = new Thread(theTask, "RequeuedItems");
+                theThread.setDaemon(true);
+                return theThread;
+            }
+        });
+    }
+
+    /**
+     * Starts checking the item in the background.
+     * @param thePos - the item's trail position.
+     * @param theURL - the item's URL.
+     */
+    public void add(int thePos,
+            URL theURL) {
+        pendingCount.incrementAndGet();
+        scheduleCheck(thePos, theURL, 1);
+    }
+
+    /**
+     *
+     * @return - the position of an item that is ready to be shown again (null
+     * if there are none).
+     */
+    public Integer pollReady() {
+        return theReady.poll();
+    }
+
+    /**
+     *
+     * @return - the number of items still being checked.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public void shutdown() {
+        checkExec.shutdownNow();
+    }
+
+    private void scheduleCheck(final int thePos,
+            final URL theURL,
+            final int theAttempt) {
+        try {
+            checkExec.schedule(new Runnable() {
+
+                public void run() {
+                    check(thePos, theURL, theAttempt);
+                }
+            }, thePolicy.getBackoffMillis(theAttempt), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException ex) {
+            // shut down
+            pendingCount.decrementAndGet();
+        }
+    }
+
+    private void check(int thePos,
+            URL theURL,
+            int theAttempt) {
+        int theStatus = 0;
+
+        try {
+            theStatus = HeadCheck.fetch(theURL, "", "", HEAD_TIMEOUT).getStatus();
+        } catch (IOException ex) {
+            theLogger.log(Level.INFO, "Requeued item {0} check failed - {1}",
+                    new Object[]{Integer.toString(thePos), ex.toString()});
+        }
+
+        if (theStatus > 0 && theStatus < HTTP_ERRORS) {
+            theLogger.log(Level.INFO, "Requeued item {0} is back", Integer.toString(thePos));
+            theReady.add(thePos);
+            pendingCount.decrementAndGet();
+        } else if (theAttempt < thePolicy.getRetries()) {
+            scheduleCheck(thePos, theURL, theAttempt + 1);
+        } else {
+            theLogger.log(Level.INFO, "Requeued item {0} given up", Integer.toString(thePos));
+            pendingCount.decrementAndGet();
+        }
+    }
+}
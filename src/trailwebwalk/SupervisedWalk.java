@@ -0,0 +1,143 @@
+package trailwebwalk;
+
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.ui.NullDisplay;
+
+/**
+ *
+ * @author al
+ * One of the walks run by the WalkSupervisor. The walk takes a slot (one of
+ * the browsers the machine has room for) and walks quanta of steps, keeping
+ * its slot and browser between them. Once it has had its browser for the
+ * time slice, if other walks are waiting for a slot it gives the browser up
+ * and waits its turn again (carrying on from where it was).
+ * Each turn starts with a cold browser launch, so the time slice should be
+ * large next to the launch time (tens of seconds) - a longer slice wastes
+ * less on launches but the waiting walks wait longer.
+ * @invariant - the Logger is a valid logger.
+ */
+public class SupervisedWalk implements Runnable {
+
+    public enum WalkState {
+
+        waiting,
+        running,
+        suspended,
+        complete,
+        failed,
+        stopped
+    };
+    private final String theName;
+    private final WebWalkController theController;
+    private final Semaphore theSlots;
+    private final int quantumSteps;
+    private final long sliceMillis;
+    private final Logger theLogger;
+    private final NullDisplay theDisplay = new NullDisplay();
+    private volatile WalkState theState = WalkState.waiting;
+
+    /**
+     *
+     * @param theName - for the status (e.g. the trail file).
+     * @param theController - controller for the walk (not started).
+     * @param theSlots - fair semaphore of the browser slots.
+     * @param quantumSteps - steps taken between checks for waiting walks (0 to
+     * walk to the end).
+     * @param sliceMillis - the least time a turn lasts (while there are
+     * steps left).
+     * @param newLogger - valid logger.
+     */
+    public SupervisedWalk(String theName,
+            WebWalkController theController,
+            Semaphore theSlots,
+            int quantumSteps,
+            long sliceMillis,
+            Logger newLogger) {
+        this.theName = theName;
+        this.theController = theController;
+        this.theSlots = theSlots;
+        this.quantumSteps = quantumSteps;
+        this.sliceMillis = sliceMillis;
+        theLogger = newLogger;
+        theController.setNotificationDisplay(theDisplay);
+        theController.setPlayPauseDisplay(theDisplay);
+        theController.setListItemSelector(theDisplay);
+    }
+
+    public void run() {
+        boolean canCarryOn = !theController.getTrailItems().isEmpty();
+        boolean isStarted = false; // holds a slot and a browser
+        long theTurnStart = 0;
+
+        try {
+            while (canCarryOn) {
+                if (!isStarted) {
+                    theState = WalkState.waiting;
+                    theSlots.acquire();
+                    isStarted = true;
+                    theState = WalkState.running;
+                    theController.resume();
+                    theTurnStart = System.currentTimeMillis();
+                }
+
+                canCarryOn = theController.walkSteps(quantumSteps);
+
+                if (canCarryOn && theSlots.hasQueuedThreads()
+                        && System.currentTimeMillis() - theTurnStart >= sliceMillis) {
+                    theLogger.log(Level.INFO, "{0} giving up its browser to other walks", theName);
+                    theController.stopTask();
+                    isStarted = false;
+                    theState = WalkState.suspended;
+                    theSlots.release();
+                }
+            }
+
+            WebWalkRunner.WalkStatus theOutcome = theController.getLastOutcome();
+
+            if (theOutcome == WebWalkRunner.WalkStatus.complete) {
+                theState = WalkState.complete;
+            } else if (theOutcome == WebWalkRunner.WalkStatus.failedStep) {
+                theState = WalkState.failed;
+            } else {
+                theState = WalkState.stopped;
+            }
+        } catch (InterruptedException ex) {
+            theState = WalkState.stopped;
+        } catch (RuntimeException ex) {
+            theLogger.log(Level.SEVERE, theName, ex);
+            theState = WalkState.stopped;
+        } finally {
+            theController.stopTask();
+
+            if (isStarted) {
+                theSlots.release();
+            }
+        }
+    }
+
+    public WalkState getState() {
+        return theState;
+    }
+
+    public String getName() {
+        return theName;
+    }
+
+    public WebWalkController getController() {
+        return theController;
+    }
+
+    @Override
+    public String toString() {
+        WalkMetrics theMetrics = theController.getMetrics();
+
+        return theName + ": " + theState
+                + " at " + (theController.getCurrentTrailPos() + 1) + "/" + theController.getTrailItems().size()
+                + ", steps " + theMetrics.getStepCount()
+                + ", failed " + theMetrics.getFailedStepCount()
+                + ", mean load " + theMetrics.getMeanLoadMillis() + "ms"
+                + " - " + theDisplay.getText();
+    }
+}
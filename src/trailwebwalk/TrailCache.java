@@ -0,0 +1,91 @@
+package trailwebwalk;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author al
+ * The trails read from trail files, kept so that walks of the same trail
+ * (e.g. under the WalkSupervisor) read and parse the file only once. A trail
+ * is read again if its file has changed.
+ * Trail file lines are label|url[|targetType|targetAttribute|targetValue].
+ * The trails are unmodifiable (and trail items immutable) so they are shared
+ * between walks without copying.
+ */
+public class TrailCache {
+
+    private static final Map<String, CachedTrail> theTrails = new HashMap<String, CachedTrail>();
+
+    /**
+     *
+     * @param theTrailFileName
+     * @param theLogger - valid logger (for lines that can't be used).
+     * @return - the trail (empty if the file can't be read).
+     */
+    public static synchronized List<TrailItem> getTrail(String theTrailFileName,
+            Logger theLogger) {
+        File theFile = new File(theTrailFileName);
+        String theKey = theFile.getAbsolutePath();
+        CachedTrail theCachedTrail = theTrails.get(theKey);
+
+        if (theCachedTrail == null || theCachedTrail.lastModified != theFile.lastModified()) {
+            theCachedTrail = new CachedTrail(theFile.lastModified(), readTrail(theTrailFileName, theLogger));
+            theTrails.put(theKey, theCachedTrail);
+        }
+
+        return theCachedTrail.theTrail;
+    }
+
+    private static List<TrailItem> readTrail(String theTrailFileName,
+            Logger theLogger) {
+        List<TrailItem> theTrail = new ArrayList<TrailItem>();
+        List<String[]> fileData = CSVFile.getFileData(theTrailFileName, "\\|");
+
+        for (String[] theLineArr : fileData) {
+            if (theLineArr.length > 1) {
+                String theLabel = theLineArr[0];
+                String theURL = theLineArr[1].trim();
+                String theTargetAttribute = "";
+                String theTargetValue = "";
+                String theTargetType = "";
+
+                if (theLineArr.length > 4) {
+                    theTargetType = theLineArr[2].trim();
+                    theTargetAttribute = theLineArr[3].trim();
+                    theTargetValue = theLineArr[4].trim();
+                }
+
+                try {
+                    URL theTrailURL = new URL(theURL);
+                    TrailItem theTrailItem = new TrailItem(theLabel,
+                            theTrailURL, theTargetType, theTargetAttribute, theTargetValue);
+                    theTrail.add(theTrailItem);
+                } catch (MalformedURLException ex) {
+                    theLogger.log(Level.WARNING, "Failed making URL from{0}", theURL);
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(theTrail);
+    }
+
+    private static class CachedTrail {
+
+        private final long lastModified;
+        private final List<TrailItem> theTrail;
+
+        CachedTrail(long lastModified, List<TrailItem> theTrail) {
+            this.lastModified = lastModified;
+            this.theTrail = theTrail;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package trailwebwalk;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.capture.FingerprintStore;
+import trailwebwalk.capture.HeadCheck;
+import trailwebwalk.capture.PageFingerprint;
+
+/**
+ *
+ * @author al
+ * The look ahead stage of the walk - while the walker is on item N (loading
+ * it, capturing it or waiting between pages) the next few items are checked
+ * with HEAD requests (conditional on the validators in the fingerprint store)
+ * so that their checks are ready when the walker gets to them.
+ * At most depth checks are kept (older ones are dropped as the walk moves
+ * on) and they are run on a couple of daemon threads.
+ * @invariant - the Logger is a valid logger.
+ * @invariant - only checks for positions in [pos, pos + depth] are kept.
+ */
+public class TrailPrefetcher {
+
+    private static final int THREAD_COUNT = 2;
+    private final List<TrailItem> theTrail;
+    private final int depth;
+    private final int timeoutMillis;
+    private final Logger theLogger;
+    private final ThreadPoolExecutor theExecutor;
+    private final Map<Integer, Check> theChecks = new HashMap<Integer, Check>();
+    private volatile FingerprintStore theFingerprints = null;
+
+    /**
+     * A check that has been started (and the validators it was made with).
+     */
+    private static class Check {
+
+        private final String theURL;
+        private final String ifNoneMatch;
+        private final String ifModifiedSince;
+        private final Future<HeadCheck> theFuture;
+
+        Check(String theURL,
+                String ifNoneMatch,
+                String ifModifiedSince,
+                Future<HeadCheck> theFuture) {
+            this.theURL = theURL;
+            this.ifNoneMatch = ifNoneMatch;
+            this.ifModifiedSince = ifModifiedSince;
+            this.theFuture = theFuture;
+        }
+    }
+
+    /**
+     *
+     * @param theTrail - the trail walked.
+     * @param depth - how many items ahead are checked.
+     * @param timeoutMillis - for each HEAD request.
+     * @param newLogger - valid logger.
+     */
+    public TrailPrefetcher(List<TrailItem> theTrail,
+            int depth,
+            int timeoutMillis,
+            Logger newLogger) {
+        this.theTrail = theTrail;
+        this.depth = depth;
+        this.timeoutMillis = timeoutMillis;
+        theLogger = newLogger;
+        theExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            public Thread newThread(Runnable theTask) {
+                Thread theThread = new Thread(theTask, "TrailPrefetcher");
+                theThread.setDaemon(true);
+                return theThread;
+            }
+        });
+        theExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     *
+     * @param newFingerprints - where the validators for conditional checks
+     * come from (null for unconditional checks).
+     */
+    public void setFingerprints(FingerprintStore newFingerprints) {
+        theFingerprints = newFingerprints;
+    }
+
+    /**
+     * Moves the look ahead on to the position - checks behind it are dropped
+     * and the items after it not yet checked are started.
+     * @param thePos - the item the walker is going to.
+     */
+    public synchronized void advanceTo(int thePos) {
+        if (theExecutor.isShutdown()) {
+            return;
+        }
+
+        Iterator<Map.Entry<Integer, Check>> theIterator = theChecks.entrySet().iterator();
+
+        while (theIterator.hasNext()) {
+            Map.Entry<Integer, Check> theEntry = theIterator.next();
+
+            if (theEntry.getKey() < thePos || theEntry.getKey() > thePos + depth) {
+                theEntry.getValue().theFuture.cancel(true);
+                theIterator.remove();
+            }
+        }
+
+        for (int theAhead = thePos + 1; theAhead <= thePos + depth && theAhead < theTrail.size(); ++theAhead) {
+            if (!theChecks.containsKey(theAhead)) {
+                theChecks.put(theAhead, startCheck(theTrail.get(theAhead).getURL()));
+            }
+        }
+    }
+
+    /**
+     * Does not wait for a check that is still running. The check is a plain
+     * HEAD request (no browser cookies or user agent) so an error from it may
+     * not be what the browser gets.
+     * @param thePos - the page's trail position.
+     * @param theURL - the page's URL.
+     * @return - the HTTP status from the check made ahead for the page (0 if
+     * there is none yet).
+     */
+    public int getStatus(int thePos,
+            String theURL) {
+        Check theCheck;
+
+        synchronized (this) {
+            theCheck = theChecks.get(thePos);
+        }
+
+        if (theCheck == null || !theCheck.theURL.equals(theURL)
+                || !theCheck.theFuture.isDone()) {
+            return 0;
+        }
+
+        try {
+            HeadCheck theHeadCheck = theCheck.theFuture.get();
+
+            return (theHeadCheck == null) ? 0 : theHeadCheck.getStatus();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            // failed - no status
+        } catch (CancellationException ex) {
+            // dropped as the walk moved on
+        }
+
+        return 0;
+    }
+
+    /**
+     * Drops the check for the position (e.g. one whose answer has been acted
+     * on, so that a later visit does not get the same answer).
+     * @param thePos
+     */
+    public synchronized void forget(int thePos) {
+        Check theCheck = theChecks.remove(thePos);
+
+        if (theCheck != null) {
+            theCheck.theFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Gets the check made ahead for the page (waiting for it if it is still
+     * running).
+     * @param thePos - the page's trail position.
+     * @param theURL - the page's URL.
+     * @param ifNoneMatch - the ETag the check should have been made with.
+     * @param ifModifiedSince - the Last-Modified it should have been made
+     * with.
+     * @return - the check, null if there is none for the page with those
+     * validators (or it failed).
+     */
+    public HeadCheck getCheck(int thePos,
+            String theURL,
+            String ifNoneMatch,
+            String ifModifiedSince) {
+        Check theCheck;
+
+        synchronized (this) {
+            theCheck = theChecks.get(thePos);
+        }
+
+        if (theCheck == null || !theCheck.theURL.equals(theURL)
+                || !theCheck.ifNoneMatch.equals(ifNoneMatch)
+                || !theCheck.ifModifiedSince.equals(ifModifiedSince)) {
+            return null;
+        }
+
+        try {
+            return theCheck.theFuture.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            theLogger.log(Level.INFO, "HEAD request failed for {0}", theURL);
+        } catch (TimeoutException ex) {
+            theLogger.log(Level.INFO, "HEAD request timed out for {0}", theURL);
+        } catch (CancellationException ex) {
+            // dropped as the walk moved on
+        }
+
+        return null;
+    }
+
+    /**
+     * Drops the checks and stops the threads.
+     */
+    public synchronized void shutdown() {
+        theChecks.clear();
+        theExecutor.shutdownNow();
+    }
+
+    private Check startCheck(final URL theURL) {
+        FingerprintStore theStore = theFingerprints;
+        PageFingerprint thePrevious = (theStore == null) ? null : theStore.get(theURL.toString());
+        final String ifNoneMatch = (thePrevious == null) ? "" : thePrevious.getETag();
+        final String ifModifiedSince = (thePrevious == null) ? "" : thePrevious.getLastModified();
+        Future<HeadCheck> theFuture = theExecutor.submit(new Callable<HeadCheck>() {
+
+            public HeadCheck call() throws IOException {
+                return HeadCheck.fetch(theURL, ifNoneMatch, ifModifiedSince, timeoutMillis);
+            }
+        });
+
+        return new Check(theURL.toString(), ifNoneMatch, ifModifiedSince, theFuture);
+    }
+}
@@ -0,0 +1,143 @@
+package trailwebwalk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import trailwebwalk.LoadShedder.ShedLevel;
+
+/**
+ *
+ * @author al
+ * Measurements of the steps of a walk (page load times, failures and the
+ * browser memory) labelled with the browser performance preset in use so that
+ * the effect of the presets can be compared.
+ * Also records the load shedding decisions (how many steps were run at each
+ * level and how often the level changed).
+ * All methods are synchronised as steps are recorded by the walker thread and
+ * read by others (e.g. the UI).
+ * @invariant - counts and totals are >= 0.
+ */
+public class WalkMetrics {
+
+    private final String presetName;
+    private int stepCount = 0;
+    private int failedStepCount = 0;
+    private long totalLoadMillis = 0;
+    private long maxLoadMillis = 0;
+    private long lastLoadMillis = 0;
+    private long lastBrowserKB = 0;
+    private long maxBrowserKB = 0;
+    private ShedLevel shedLevel = ShedLevel.none;
+    private int shedChangeCount = 0;
+    private final Map<ShedLevel, Integer> shedStepCounts = new EnumMap<ShedLevel, Integer>(ShedLevel.class);
+
+    /**
+     *
+     * @param presetName - the performance preset that the browser was launched
+     * with.
+     */
+    public WalkMetrics(String presetName) {
+        this.presetName = presetName;
+    }
+
+    /**
+     * Records a step (page visit).
+     * @param loadMillis - time taken to load the page (and click the target).
+     * @param browserKB - the browser memory after the step (0 if not known).
+     * @param wasSuccessful - whether the step succeeded.
+     */
+    public synchronized void recordStep(long loadMillis,
+            long browserKB,
+            boolean wasSuccessful) {
+        ++stepCount;
+
+        if (!wasSuccessful) {
+            ++failedStepCount;
+        }
+
+        totalLoadMillis += loadMillis;
+        lastLoadMillis = loadMillis;
+        maxLoadMillis = Math.max(maxLoadMillis, loadMillis);
+        lastBrowserKB = browserKB;
+        maxBrowserKB = Math.max(maxBrowserKB, browserKB);
+    }
+
+    /**
+     * Records the load shedding level decided on after a step.
+     * @param theLevel
+     */
+    public synchronized void recordShedLevel(ShedLevel theLevel) {
+        if (theLevel != shedLevel) {
+            ++shedChangeCount;
+            shedLevel = theLevel;
+        }
+
+        Integer theCount = shedStepCounts.get(theLevel);
+        shedStepCounts.put(theLevel, (theCount == null) ? 1 : theCount + 1);
+    }
+
+    public synchronized ShedLevel getShedLevel() {
+        return shedLevel;
+    }
+
+    public synchronized int getShedChangeCount() {
+        return shedChangeCount;
+    }
+
+    /**
+     *
+     * @param theLevel
+     * @return - the number of steps after which the level was decided on.
+     */
+    public synchronized int getShedStepCount(ShedLevel theLevel) {
+        Integer theCount = shedStepCounts.get(theLevel);
+
+        return (theCount == null) ? 0 : theCount;
+    }
+
+    public String getPresetName() {
+        return presetName;
+    }
+
+    public synchronized int getStepCount() {
+        return stepCount;
+    }
+
+    public synchronized int getFailedStepCount() {
+        return failedStepCount;
+    }
+
+    public synchronized long getMeanLoadMillis() {
+        if (stepCount == 0) {
+            return 0;
+        }
+
+        return totalLoadMillis / stepCount;
+    }
+
+    public synchronized long getMaxLoadMillis() {
+        return maxLoadMillis;
+    }
+
+    public synchronized long getLastLoadMillis() {
+        return lastLoadMillis;
+    }
+
+    public synchronized long getMaxBrowserKB() {
+        return maxBrowserKB;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WalkMetrics{" + "preset=" + presetName
+                + ", steps=" + stepCount
+                + ", failed=" + failedStepCount
+                + ", meanLoadMs=" + getMeanLoadMillis()
+                + ", maxLoadMs=" + maxLoadMillis
+                + ", lastLoadMs=" + lastLoadMillis
+                + ", browserKB=" + lastBrowserKB
+                + ", maxBrowserKB=" + maxBrowserKB
+                + ", shed=" + shedLevel
+                + ", shedChanges=" + shedChangeCount
+                + ", shedSteps=" + shedStepCounts + '}';
+    }
+}
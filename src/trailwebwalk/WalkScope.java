@@ -0,0 +1,118 @@
+package trailwebwalk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * @author al
+ * The work of one walk session (the walk loop, going to a page, etc.) run so
+ * that it can be cancelled together - when the session is stopped everything
+ * still running in it is interrupted and nothing more can be started in it.
+ * The work of all the sessions in the JVM is run on one shared pool of
+ * daemon threads that are only kept while there is work (so idle sessions
+ * cost no threads).
+ * @invariant - once closed no more work is run in the scope.
+ */
+public class WalkScope {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ExecutorService sessionThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+
+        public Thread newThread(Runnable theTask) {
+            Thread theThread = new Thread(theTask, "WalkSession-" + threadCount.incrementAndGet());
+            theThread.setDaemon(true);
+            return theThread;
+        }
+    });
+    private final List<Future<?>> theChildren = new ArrayList<Future<?>>();
+    private boolean isClosed = false;
+
+    /**
+     * Runs the task in the scope.
+     * @param theTask
+     * @return - the task's future.
+     * @throws RejectedExecutionException - if the scope has been closed.
+     */
+    public synchronized <T> Future<T> fork(Callable<T> theTask) {
+        if (isClosed) {
+            throw new RejectedExecutionException("Walk session closed");
+        }
+
+        forgetDone();
+        Future<T> theChild = sessionThreads.submit(theTask);
+        theChildren.add(theChild);
+
+        return theChild;
+    }
+
+    /**
+     * As above for a task without a result.
+     */
+    public synchronized Future<?> fork(Runnable theTask) {
+        if (isClosed) {
+            throw new RejectedExecutionException("Walk session closed");
+        }
+
+        forgetDone();
+        Future<?> theChild = sessionThreads.submit(theTask);
+        theChildren.add(theChild);
+
+        return theChild;
+    }
+
+    /**
+     * Interrupts the work in the scope other than the given task (e.g. a page
+     * being gone to when the walk is paused).
+     * @param theSpared - task to leave running (may be null).
+     */
+    public synchronized void cancelAllBut(Future<?> theSpared) {
+        for (Future<?> theChild : theChildren) {
+            if (theChild != theSpared) {
+                theChild.cancel(true);
+            }
+        }
+
+        forgetDone();
+    }
+
+    /**
+     * Interrupts all the work in the scope and stops any more being started.
+     */
+    public synchronized void close() {
+        isClosed = true;
+        cancelAllBut(null);
+    }
+
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     *
+     * @return - the number of tasks still running in the scope.
+     */
+    public synchronized int getActiveCount() {
+        forgetDone();
+
+        return theChildren.size();
+    }
+
+    private void forgetDone() {
+        Iterator<Future<?>> theIterator = theChildren.iterator();
+
+        while (theIterator.hasNext()) {
+            if (theIterator.next().isDone()) {
+                theIterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package trailwebwalk;
+
+/**
+ *
+ * @author al
+ * Snapshot of the state of a walk - its status, the number of failures in a
+ * row, where it is on the trail and whether it has a browser. Snapshots are
+ * never changed; the runner publishes a new one for each change so that
+ * other threads (UI, metrics, control API) always see a consistent state
+ * without locking.
+ * @invariant - failureCount >= 0.
+ * @invariant - 0 <= trailPos < trailSize (trailPos is 0 for an empty trail).
+ */
+public final class WalkState {
+
+    private final WebWalkRunner.WalkStatus theStatus;
+    private final int failureCount;
+    private final int trailPos;
+    private final int trailSize;
+    private final boolean isStarted;
+
+    /**
+     *
+     * @param theStatus
+     * @param failureCount - failures since the last successful step.
+     * @param trailPos - the item the walk is on.
+     * @param trailSize - the number of items in the trail.
+     * @param isStarted - whether the walk has been started (has a browser).
+     */
+    public WalkState(WebWalkRunner.WalkStatus theStatus,
+            int failureCount,
+            int trailPos,
+            int trailSize,
+            boolean isStarted) {
+        this.theStatus = theStatus;
+        this.failureCount = failureCount;
+        this.trailPos = trailPos;
+        this.trailSize = trailSize;
+        this.isStarted = isStarted;
+    }
+
+    /**
+     *
+     * @param newStatus
+     * @return - the state with the status (a success clears the failures,
+     * anything else adds one).
+     */
+    public WalkState withStatus(WebWalkRunner.WalkStatus newStatus) {
+        int newFailureCount = (newStatus == WebWalkRunner.WalkStatus.successfulStep) ? 0 : failureCount + 1;
+
+        return new WalkState(newStatus, newFailureCount, trailPos, trailSize, isStarted);
+    }
+
+    /**
+     *
+     * @param newTrailPos
+     * @return - the state at the position (kept within the trail).
+     */
+    public WalkState withTrailPos(int newTrailPos) {
+        int thePos = Math.max(0, Math.min(newTrailPos, trailSize - 1));
+
+        return new WalkState(theStatus, failureCount, thePos, trailSize, isStarted);
+    }
+
+    public WalkState withStarted(boolean newIsStarted) {
+        return new WalkState(theStatus, failureCount, trailPos, trailSize, newIsStarted);
+    }
+
+    public WebWalkRunner.WalkStatus getStatus() {
+        return theStatus;
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    public int getTrailPos() {
+        return trailPos;
+    }
+
+    public int getTrailSize() {
+        return trailSize;
+    }
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public boolean isAtEnd() {
+        return trailPos >= trailSize - 1;
+    }
+
+    public boolean isAtStart() {
+        return trailPos <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "WalkState{" + theStatus + ", failures=" + failureCount
+                + ", at " + trailPos + "/" + trailSize
+                + (isStarted ? ", started" : "") + '}';
+    }
+}
@@ -0,0 +1,223 @@
+package trailwebwalk;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.browser.BrowserProcess;
+
+/**
+ *
+ * @author al
+ * Runs the walks of several trails (TrailFiles property, comma separated) in
+ * one JVM (Main --walks). Each walk has its own controller and browser; the
+ * number of browsers at once (slots) is worked out from the cores and the
+ * free memory (WalkCores and WalkMemoryMB per walk, MaxWalks to cap it).
+ * If there are more walks than slots they take turns of at least
+ * WalkSliceSeconds, checking for waiting walks every WalkQuantumSteps steps
+ * (the semaphore is fair so they are served in order).
+ * The trails are parsed once (TrailCache) and the status of all the walks is
+ * reported together every StatusInterval seconds.
+ * @invariant - the Logger is a valid logger.
+ */
+public class WalkSupervisor {
+
+    private final List<SupervisedWalk> theWalks = new ArrayList<SupervisedWalk>();
+    private final int slotCount;
+    private final int statusInterval;
+    private final Logger theLogger;
+
+    /**
+     *
+     * @param properties - as for a single walk plus the above.
+     * @param newLogger - valid logger.
+     */
+    public WalkSupervisor(Properties properties,
+            Logger newLogger) {
+        theLogger = newLogger;
+        List<String> theTrailNames = getTrailFiles(properties);
+        slotCount = Math.max(1, Math.min(computeSlots(properties), theTrailNames.size()));
+        statusInterval = Integer.parseInt(properties.getProperty("StatusInterval", "30").trim());
+        int quantumSteps = Integer.parseInt(properties.getProperty("WalkQuantumSteps", "10").trim());
+        long sliceMillis = Long.parseLong(properties.getProperty("WalkSliceSeconds", "120").trim()) * 1000;
+        Semaphore theSlots = new Semaphore(slotCount, true);
+
+        for (int i = 0; i < theTrailNames.size(); ++i) {
+            String theTrailName = theTrailNames.get(i);
+            Properties theWalkProperties = getWalkProperties(properties, i, theTrailName);
+            // browsers only while a walk has a slot
+            theWalkProperties.setProperty("BrowserPoolSize", "0");
+            WebWalkController theController = new WebWalkController(theWalkProperties, theLogger);
+            theWalks.add(new SupervisedWalk(theTrailName, theController, theSlots, quantumSteps,
+                    sliceMillis, theLogger));
+        }
+
+        theLogger.log(Level.INFO, "{0} walks in {1} slots",
+                new Object[]{Integer.toString(theWalks.size()), Integer.toString(slotCount)});
+    }
+
+    /**
+     *
+     * @param properties
+     * @return - the trail files in TrailFiles (comma separated, defaults to
+     * TrailFileName).
+     */
+    public static List<String> getTrailFiles(Properties properties) {
+        String[] theTrailFiles = properties.getProperty("TrailFiles",
+                properties.getProperty("TrailFileName", "")).split(",");
+        List<String> theTrailNames = new ArrayList<String>();
+
+        for (String theTrailFile : theTrailFiles) {
+            if (!theTrailFile.trim().isEmpty()) {
+                theTrailNames.add(theTrailFile.trim());
+            }
+        }
+
+        return theTrailNames;
+    }
+
+    /**
+     * The properties for one of several walks in the JVM - its own trail,
+     * screenshot directory (DumpDir/walkN), profile cache (ProfileCacheDir/walkN,
+     * as a ProfileCache is not shared) and live frame port.
+     * @param properties - the shared properties.
+     * @param walkIndex - the walk (from 0).
+     * @param theTrailName - the walk's trail file.
+     * @return - a copy of the properties for the walk.
+     */
+    public static Properties getWalkProperties(Properties properties,
+            int walkIndex,
+            String theTrailName) {
+        String theDumpDir = properties.getProperty("DumpDir", "./dumpDir").trim();
+        int liveFramePort = Integer.parseInt(properties.getProperty("LiveFramePort", "0").trim());
+        Properties theWalkProperties = new Properties();
+        theWalkProperties.putAll(properties);
+        theWalkProperties.setProperty("TrailFileName", theTrailName);
+        theWalkProperties.setProperty("DumpDir", new File(theDumpDir, "walk" + (walkIndex + 1)).getPath());
+        String theProfileCacheDir = properties.getProperty("ProfileCacheDir", "").trim();
+
+        if (!theProfileCacheDir.isEmpty()) {
+            theWalkProperties.setProperty("ProfileCacheDir",
+                    new File(theProfileCacheDir, "walk" + (walkIndex + 1)).getPath());
+        }
+        theWalkProperties.setProperty("LiveFramePort",
+                Integer.toString((liveFramePort > 0) ? liveFramePort + walkIndex : 0));
+
+        return theWalkProperties;
+    }
+
+    /**
+     *
+     * @param properties
+     * @return - the number of walks the machine has room for at once.
+     */
+    static int computeSlots(Properties properties) {
+        int walkCores = Math.max(1, Integer.parseInt(properties.getProperty("WalkCores", "1").trim()));
+        long walkMemoryKB = Long.parseLong(properties.getProperty("WalkMemoryMB", "512").trim()) * 1024;
+        int maxWalks = Integer.parseInt(properties.getProperty("MaxWalks", "0").trim());
+        int bySlots = Math.max(1, Runtime.getRuntime().availableProcessors() / walkCores);
+        long theAvailableKB = BrowserProcess.availableMemoryKB();
+
+        if (theAvailableKB > 0 && walkMemoryKB > 0) {
+            bySlots = (int) Math.min(bySlots, Math.max(1, theAvailableKB / walkMemoryKB));
+        }
+
+        if (maxWalks > 0) {
+            bySlots = Math.min(bySlots, maxWalks);
+        }
+
+        return bySlots;
+    }
+
+    /**
+     * Runs all the walks to the end (or until interrupted) and shuts them
+     * down.
+     * @return - exit status as per BatchWalk (the worst of the walks).
+     */
+    public int runAll() {
+        ExecutorService theExec = Executors.newFixedThreadPool(Math.max(1, theWalks.size()));
+        ScheduledExecutorService theStatusExec = Executors.newSingleThreadScheduledExecutor();
+
+        if (statusInterval > 0) {
+            theStatusExec.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    reportStatus();
+                }
+            }, statusInterval, statusInterval, TimeUnit.SECONDS);
+        }
+
+        try {
+            for (SupervisedWalk theWalk : theWalks) {
+                theExec.execute(theWalk);
+            }
+
+            theExec.shutdown();
+
+            while (!theExec.awaitTermination(1, TimeUnit.SECONDS)) {
+                // walks still going
+            }
+        } catch (InterruptedException ex) {
+            theExec.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            theStatusExec.shutdownNow();
+            shutdown();
+        }
+
+        reportStatus();
+
+        int theResult = BatchWalk.EXIT_COMPLETE;
+
+        for (SupervisedWalk theWalk : theWalks) {
+            if (theWalk.getState() == SupervisedWalk.WalkState.failed) {
+                theResult = Math.max(theResult, BatchWalk.EXIT_FAILED);
+            } else if (theWalk.getState() != SupervisedWalk.WalkState.complete) {
+                theResult = Math.max(theResult, BatchWalk.EXIT_STOPPED);
+            }
+        }
+
+        return theResult;
+    }
+
+    /**
+     * Shuts down all the walks' controllers (and their browsers).
+     */
+    public void shutdown() {
+        for (SupervisedWalk theWalk : theWalks) {
+            theWalk.getController().shutdown();
+        }
+    }
+
+    /**
+     *
+     * @return - the status of all the walks (a line each).
+     */
+    public String getStatus() {
+        StringBuilder theStatus = new StringBuilder();
+        theStatus.append("Walks (").append(slotCount).append(" slots)\n");
+
+        for (SupervisedWalk theWalk : theWalks) {
+            theStatus.append("  ").append(theWalk).append('\n');
+        }
+
+        return theStatus.toString();
+    }
+
+    public List<SupervisedWalk> getWalks() {
+        return new ArrayList<SupervisedWalk>(theWalks);
+    }
+
+    private void reportStatus() {
+        String theStatus = getStatus();
+        theLogger.log(Level.INFO, theStatus);
+        System.out.print(theStatus);
+    }
+}
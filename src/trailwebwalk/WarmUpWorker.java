@@ -0,0 +1,21 @@
+
+package trailwebwalk;
+
+import java.util.concurrent.Callable;
+import trailwebwalk.browser.Browser;
+
+/**
+ *
+ * @author al
+ */
+public class WarmUpWorker implements Callable<Browser> {
+    private final WebWalkRunner theRunner;
+
+    public WarmUpWorker(WebWalkRunner theRunner) {
+        this.theRunner = theRunner;
+    }
+
+    public Browser call() {
+        return theRunner.warmUpBrowser();
+    }
+}
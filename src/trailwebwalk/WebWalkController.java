@@ -1,16 +1,35 @@
 package trailwebwalk;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import trailwebwalk.ui.ListItemSelector;
 import trailwebwalk.ui.PlayPauseDisplay;
 import trailwebwalk.ui.WalkStatusDisplay;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.openqa.selenium.WebDriverException;
+import trailwebwalk.browser.Browser;
+import trailwebwalk.browser.BrowserLauncher;
+import trailwebwalk.browser.BrowserPool;
+import trailwebwalk.browser.DriverBackend;
+import trailwebwalk.browser.PerformancePreset;
+import trailwebwalk.capture.BackpressurePolicy;
+import trailwebwalk.capture.EvictionPolicy;
+import trailwebwalk.capture.FrameDeduplicator;
+import trailwebwalk.capture.PostProcessor;
+import trailwebwalk.live.FrameFanout;
+import trailwebwalk.live.LiveFrameServer;
+import trailwebwalk.browser.ProfileCache;
 
 /**
  *
@@ -19,6 +38,8 @@ import org.openqa.selenium.WebDriverException;
  * Focusses on the policy for failure recovery rather than on the basic actions
  * performed by the walker.
  * Controls the thread for the walker (therefore implements runnable).
+ * The walker and the page loads it waits for are run in a WalkScope so that
+ * they are cancelled together when the walk is stopped.
  * @invariant - the runner is valid.
  * @invariant - the Logger is a valid logger.
  */
@@ -28,12 +49,31 @@ public class WebWalkController implements Runnable {
     private PlayPauseDisplay playPauseDisplay = null; // play display passed from UI.
     private final WebWalkRunner theRunner;
     private volatile boolean taskStopped = false;
-    private final int BETWEEN_PAGE_SLEEP_TIME; // time to wait between page refresh
+    private final long BETWEEN_PAGE_SLEEP_NANOS; // time from the start of one page to the next
+    private long nextSlideNanos = 0; // when the current page was due (0 = not walking)
     private final Logger theLogger;
     private final String profileId; // the firefox profile identifier
     private String theBaseURL;  // the base URL 
-    private final ExecutorService exec;
+    private WalkScope theScope = new WalkScope(); // the current walk session
+    private Future<?> walkFuture = null; // the walker in the session (see play)
+    private final ScheduledExecutorService heartbeatExec;
+    private final BrowserRecycler theRecycler;
+    private final BrowserPool browserPool;
+    private PostProcessor thePostProcessor = null;
+    private LiveFrameServer theLiveServer = null;
+    private volatile boolean isFullSpeed = false;
+    private final long stepBudgetMillis; // for shedding at the SleepTime cadence
+    private boolean isShutDown = false;
+    private volatile WebWalkRunner.WalkStatus lastOutcome = null;
     private ListItemSelector listItemSelector;
+    private final RecoveryPolicy theRecoveryPolicy;
+    private final RequeuedItems theRequeued;
+    // walker thread only (reset when stopped)
+    private int failedPos = -1; // the trail position that last failed
+    private int failedAttempts = 0; // how many times it has failed in a row
+    private int retryPos = -1; // the position to try again (-1 for none)
+    private long retryDueMillis = 0;
+    private boolean isRevisiting = false; // showing requeued items after the end of the trail
 
     /**
      *
@@ -45,26 +85,116 @@ public class WebWalkController implements Runnable {
     public WebWalkController(Properties properties,
             Logger newLogger) {
         theLogger = newLogger;
-        exec = Executors.newSingleThreadExecutor();
 
         String trailFile = properties.getProperty("TrailFileName", "");
         profileId = properties.getProperty("ProfileId");
-        theRunner = new WebWalkRunner(profileId, trailFile, theLogger);
+        int poolSize = Integer.parseInt(properties.getProperty("BrowserPoolSize", "0"));
+        boolean shouldClearCookies = properties.getProperty("BrowserPoolCookies", "keep").equalsIgnoreCase("clear");
+        String profileCacheDir = properties.getProperty("ProfileCacheDir", "");
+        ProfileCache theProfileCache = null;
+
+        if (!profileCacheDir.isEmpty() && profileId != null) {
+            theProfileCache = new ProfileCache(profileId, new File(profileCacheDir), theLogger);
+        }
+
+        PerformancePreset thePreset = new PerformancePreset(properties);
+        // firefox or htmlunit (headless, no screenshots)
+        DriverBackend theBackend = DriverBackend.valueOf(properties.getProperty("DriverBackend", "firefox").trim());
+        BrowserLauncher theLauncher = new BrowserLauncher(profileId, theProfileCache, thePreset,
+                theBackend, theLogger);
+        browserPool = new BrowserPool(theLauncher, poolSize, shouldClearCookies, theLogger);
+        theRunner = new WebWalkRunner(browserPool, trailFile, theLogger);
+        theRunner.setMetrics(new WalkMetrics(thePreset.getName()));
+        theRecycler = new BrowserRecycler(properties, theRunner, theLogger);
 
         String sleepTimeProperty = properties.getProperty("SleepTime");
 
-        int intSleepTime = Integer.parseInt(sleepTimeProperty);
+        // seconds, fractions allowed (e.g. 0.5)
+        double theSleepTime = Double.parseDouble(sleepTimeProperty.trim());
 
-        if (intSleepTime > 0) {
-            BETWEEN_PAGE_SLEEP_TIME = intSleepTime;
+        if (theSleepTime > 0) {
+            BETWEEN_PAGE_SLEEP_NANOS = (long) (theSleepTime * 1000000000L);
         } else {
-            BETWEEN_PAGE_SLEEP_TIME = 25;
+            BETWEEN_PAGE_SLEEP_NANOS = 25 * 1000000000L;
         }
+
+        // optional work is shed when it takes more than this % of the time between pages (0 = never)
+        int shedBudgetPercent = Integer.parseInt(properties.getProperty("ShedBudgetPercent", "0").trim());
+        stepBudgetMillis = TimeUnit.NANOSECONDS.toMillis(BETWEEN_PAGE_SLEEP_NANOS) * shedBudgetPercent / 100;
+        theRunner.setStepBudget(stepBudgetMillis);
                       
+        // trail items ahead of the walker checked while it is on the current one (0 = none)
+        theRunner.setPrefetchDepth(Integer.parseInt(properties.getProperty("PrefetchDepth", "0").trim()));
+
+        // what is done about a page that fails (see RecoveryPolicy)
+        theRecoveryPolicy = new RecoveryPolicy(properties);
+        theRequeued = new RequeuedItems(theRecoveryPolicy, theLogger);
+        theRunner.setMaxFailures(Integer.parseInt(properties.getProperty("RecoveryMaxFailures", "3").trim()));
+        theLogger.log(Level.INFO, "Recovery: {0}", theRecoveryPolicy);
+
         String shouldDumpScreenString = properties.getProperty("ShouldDumpScreen", "false");
         
         if(shouldDumpScreenString.equalsIgnoreCase("true")){
-            theRunner.setShouldDump(true);
+            BackpressurePolicy theDumpPolicy = BackpressurePolicy.valueOf(
+                    properties.getProperty("DumpBackpressure", "block").trim());
+            int dumpQueueSize = Integer.parseInt(properties.getProperty("DumpQueueSize", "8").trim());
+            theRunner.setDumpDir(properties.getProperty("DumpDir", "./dumpDir").trim());
+            // space the screenshot runs may take (0 = no limit) and what goes when it is reached
+            long dumpQuotaMB = Long.parseLong(properties.getProperty("DumpQuotaMB", "0").trim());
+            theRunner.setDumpQuota(dumpQuotaMB * 1024 * 1024,
+                    EvictionPolicy.valueOf(properties.getProperty("DumpEviction", "oldestRun").trim()),
+                    Integer.parseInt(properties.getProperty("DumpKeepEvery", "4").trim()));
+            // pages unchanged since the last run are linked to its screenshot
+            theRunner.setIncrementalCapture(properties.getProperty("IncrementalCapture", "false").trim().equalsIgnoreCase("true"));
+            // frames within DedupThreshold bits of a recent one are stored as references (-1 = off)
+            int dedupThreshold = Integer.parseInt(properties.getProperty("DedupThreshold", "-1").trim());
+            FrameDeduplicator theDeduplicator = null;
+
+            if (dedupThreshold >= 0) {
+                int dedupWindow = Integer.parseInt(properties.getProperty("DedupWindow", "8").trim());
+                theDeduplicator = new FrameDeduplicator(dedupWindow, dedupThreshold);
+            }
+
+            // thumbnails, JPEG copies and target crops made from the screenshots (0/false = none)
+            int thumbnailWidth = Integer.parseInt(properties.getProperty("ThumbnailWidth", "0").trim());
+            int jpegQuality = Integer.parseInt(properties.getProperty("JpegQuality", "0").trim());
+            boolean shouldCropTarget = properties.getProperty("CropTarget", "false").trim().equalsIgnoreCase("true");
+
+            if (thumbnailWidth > 0 || jpegQuality > 0 || shouldCropTarget) {
+                thePostProcessor = new PostProcessor(thumbnailWidth, jpegQuality, shouldCropTarget, theLogger);
+                theRunner.setPostProcessor(thePostProcessor);
+            }
+
+            theRunner.setShouldDump(true, theDumpPolicy, dumpQueueSize, theDeduplicator);
+        }
+
+        // port for other screens to watch the walk on (0 = none)
+        int liveFramePort = Integer.parseInt(properties.getProperty("LiveFramePort", "0").trim());
+
+        if (liveFramePort > 0) {
+            FrameFanout theLiveFrames = new FrameFanout(
+                    Integer.parseInt(properties.getProperty("LiveJpegQuality", "70").trim()), theLogger);
+
+            try {
+                // this machine only unless a wider address is given
+                theLiveServer = new LiveFrameServer(
+                        properties.getProperty("LiveFrameBindAddress", "127.0.0.1").trim(),
+                        liveFramePort, theLiveFrames,
+                        Integer.parseInt(properties.getProperty("LiveMaxViewers", "8").trim()), theLogger);
+                theRunner.setLiveFrames(theLiveFrames);
+            } catch (IOException ex) {
+                theLogger.log(Level.WARNING, "Failed to start live frame server", ex);
+                theLiveFrames.close();
+            }
+        }
+
+        // seconds between checks that the browser is still alive (0 = none)
+        int heartbeatInterval = Integer.parseInt(properties.getProperty("HeartbeatInterval", "5"));
+        heartbeatExec = Executors.newSingleThreadScheduledExecutor();
+
+        if (heartbeatInterval > 0) {
+            heartbeatExec.scheduleWithFixedDelay(new BrowserWatchdog(theRunner, theLogger),
+                    heartbeatInterval, heartbeatInterval, TimeUnit.SECONDS);
         }
     }
 
@@ -75,23 +205,61 @@ public class WebWalkController implements Runnable {
      * @postcon - as per invariant. 
      */
     public void run() {
+        walkSteps(0);
+    }
+
+    /**
+     * Walks (on the calling thread) until the walk is paused, stopped, ends
+     * or has taken the number of steps.
+     * @param maxSteps - the most steps to take (0 for no limit).
+     * @return - whether the walk stopped because of the step limit (so can
+     * carry on).
+     * @precon - the walk has been started (see startUp/resume).
+     */
+    public boolean walkSteps(int maxSteps) {
         statusLabel.setText("Walking");
         taskStopped = false;
+        lastOutcome = null;
+        int theStepCount = 0;
+        nextSlideNanos = 0;
 
         try {
             while (!isTaskStopped()) {
-                step();
+                if (maxSteps > 0 && theStepCount++ >= maxSteps) {
+                    return true;
+                }
+
+                long theNow = System.nanoTime();
+
+                // a page is shown every SleepTime unless the walk has fallen a page behind
+                if (nextSlideNanos == 0 || theNow - nextSlideNanos > BETWEEN_PAGE_SLEEP_NANOS) {
+                    nextSlideNanos = theNow;
+                }
+
+                Browser theStepBrowser = theRunner.getBrowser();
+
+                try {
+                    step();
+                } catch (WebDriverException ex) {
+                    // the browser dying is recovered from (perhaps already by the heartbeat), anything else is not
+                    if (!theRunner.respawnIfDead(theStepBrowser)) {
+                        throw ex;
+                    }
+                }
 
                 WebWalkRunner.WalkStatus stepRunnerStatus = theRunner.checkStatus();
 
                 if (stepRunnerStatus == WebWalkRunner.WalkStatus.failedStep) {
+                    lastOutcome = stepRunnerStatus;
                     pauseTask();
                     statusLabel.setText("Walking failed");
                 } else {
                     if (stepRunnerStatus == WebWalkRunner.WalkStatus.complete) {
+                        lastOutcome = stepRunnerStatus;
                         pauseTask();
                         statusLabel.setText("Walking complete");
                     } else {
+                        theRecycler.atSlideBoundary();
                         pauseBetweenPages(stepRunnerStatus);
                     }
                 }
@@ -103,6 +271,54 @@ public class WebWalkController implements Runnable {
             theLogger.log(Level.SEVERE, null, ex);
             pauseTask();
         }
+
+        return false;
+    }
+
+    /**
+     * Starts the walker in the walk session (starting the browser at the
+     * current trail position if it has been stopped) unless it is walking.
+     * @return - the walker's future.
+     */
+    public synchronized Future<?> play() {
+        if (!isWalking()) {
+            walkFuture = theScope.fork(new Runnable() {
+
+                public void run() {
+                    if (!theRunner.isStarted()) {
+                        resume();
+                    }
+
+                    WebWalkController.this.run();
+                }
+            });
+        }
+
+        return walkFuture;
+    }
+
+    /**
+     *
+     * @return - whether the walk has a browser (started and not stopped).
+     */
+    public boolean isStarted() {
+        return theRunner.isStarted();
+    }
+
+    /**
+     *
+     * @return - whether the walker started by play is still walking.
+     */
+    public synchronized boolean isWalking() {
+        return walkFuture != null && !walkFuture.isDone();
+    }
+
+    /**
+     * Starts the walk's browser again (on the calling thread) at the current
+     * trail position, e.g. after stopTask.
+     */
+    public void resume() {
+        theRunner.startUpAtCurrentItem();
     }
 
     /**
@@ -164,42 +380,199 @@ public class WebWalkController implements Runnable {
             return;
         }
 
-        theRunner.step();
+        if (retryPos >= 0) {
+            // stays on the last good page until the retry is due
+            waitForRetry();
+
+            if (isTaskStopped()) {
+                return;
+            }
+
+            int thePos = retryPos;
+            retryPos = -1;
+            theLogger.log(Level.INFO, "Retrying {0}", Integer.toString(thePos));
+            theRunner.stepTo(thePos);
+        } else if (isRevisiting) {
+            // stepTo does not capture the page it leaves
+            theRunner.captureCurrentPage();
+            revisitNext();
+        } else {
+            theRunner.step();
+
+            if (theRunner.checkStatus() == WebWalkRunner.WalkStatus.complete) {
+                revisitNext();
+            }
+        }
+
         listItemSelector.selectItem(getCurrentTrailPos());
+        recover();
+    }
 
+    /**
+     * Waits (on the monitor, so pause/stop wake it) until the retry is due.
+     */
+    private synchronized void waitForRetry() throws InterruptedException {
+        long theRemaining = retryDueMillis - System.currentTimeMillis();
+
+        while (!taskStopped && theRemaining > 0) {
+            wait(theRemaining);
+            theRemaining = retryDueMillis - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Applies the recovery policy to the step's status until the walk is on
+     * a page (or has failed or completed).
+     * A retried page is tried again from the last good page after its
+     * backoff, so the walk dwells on a good page rather than waiting on the
+     * failed one.
+     * @postcon - the status is not a recoverable one (or the task is
+     * stopped).
+     */
+    private void recover() throws WebDriverException {
         WebWalkRunner.WalkStatus theStatus = theRunner.checkStatus();
+        int theTries = 0;
 
-        if (theStatus != WebWalkRunner.WalkStatus.successfulStep) {
-            switch (theStatus) {
-                case permissionDenied:
-                    recoverPageNotFound();
-                    break;
-                case pageNotFound:
-                    recoverPageNotFound();
-                    break;
-                case pageTimedOut:
-                    recoverPageTimeout();
-                    break;
+        while (theRecoveryPolicy.isRecoverable(theStatus) && !isTaskStopped()) {
+            if (++theTries > theRunner.getMaxFailures() + 1) {
+                theLogger.log(Level.INFO, "Recovery giving up");
+                theRunner.setStatus(WebWalkRunner.WalkStatus.failedStep);
+                return;
+            }
+
+            int thePos = getCurrentTrailPos();
+
+            if (isRevisiting) {
+                // already had its chances
+                theLogger.log(Level.INFO, "Requeued item {0} failed again - {1}",
+                        new Object[]{Integer.toString(thePos), theStatus});
+                revisitNext();
+            } else {
+                failedAttempts = (thePos == failedPos) ? failedAttempts + 1 : 1;
+                failedPos = thePos;
+                RecoveryAction theAction = theRecoveryPolicy.getAction(theStatus, failedAttempts);
+                theLogger.log(Level.INFO, "Recovering from {0} at {1} (attempt {2}) - {3}",
+                        new Object[]{theStatus, Integer.toString(thePos),
+                            Integer.toString(failedAttempts), theAction});
+
+                switch (theAction) {
+                    case refresh:
+                        theRunner.refresh();
+                        break;
+                    case retry:
+                        goBack();
+                        retryPos = thePos;
+                        retryDueMillis = System.currentTimeMillis()
+                                + theRecoveryPolicy.getBackoffMillis(failedAttempts);
+                        break;
+                    case requeue:
+                        theRequeued.add(thePos, getTrailItems().get(thePos).getURL());
+                        skipFrom(thePos);
+                        break;
+                    case skip:
+                        skipFrom(thePos);
+                        break;
+                    case goBack:
+                        goBack();
+
+                        if (theRecoveryPolicy.isRecoverable(theRunner.checkStatus())) {
+                            theLogger.log(Level.INFO, "Go back failed - giving up");
+                            theRunner.setStatus(WebWalkRunner.WalkStatus.failedStep);
+                        }
+                        break;
+                    default:
+                        theRunner.setStatus(WebWalkRunner.WalkStatus.failedStep);
+                }
             }
+
+            theStatus = theRunner.checkStatus();
+        }
+
+        if (theStatus == WebWalkRunner.WalkStatus.successfulStep
+                && getCurrentTrailPos() == failedPos) {
+            failedPos = -1;
         }
     }
 
     /**
-     * Perform pause for the required time between page change.
+     * Moves straight on from a failed page (without capturing it).
+     * @param thePos - the failed page's trail position.
+     */
+    private void skipFrom(int thePos) throws WebDriverException {
+        if (thePos >= getTrailItems().size() - 1) {
+            theRunner.setStatus(WebWalkRunner.WalkStatus.complete);
+            revisitNext();
+        } else {
+            theRunner.stepTo(thePos + 1);
+        }
+
+        listItemSelector.selectItem(getCurrentTrailPos());
+    }
+
+    /**
+     * Once the trail is complete, moves to the next requeued item that has
+     * come back (if there is one), otherwise the walk is complete.
+     */
+    private void revisitNext() throws WebDriverException {
+        Integer thePos = theRequeued.pollReady();
+
+        if (thePos == null) {
+            if (isRevisiting) {
+                isRevisiting = false;
+                theRunner.setStatus(WebWalkRunner.WalkStatus.complete);
+            }
+
+            if (theRequeued.getPendingCount() > 0) {
+                theLogger.log(Level.INFO, "{0} requeued items not back by the end of the walk",
+                        Integer.toString(theRequeued.getPendingCount()));
+            }
+
+            return;
+        }
+
+        theLogger.log(Level.INFO, "Revisiting {0}", thePos);
+        isRevisiting = true;
+        theRunner.setStatus(WebWalkRunner.WalkStatus.successfulStep);
+        theRunner.stepTo(thePos);
+        listItemSelector.selectItem(getCurrentTrailPos());
+    }
+
+    /**
+     * Waits until the next page is due - SleepTime after the current one was
+     * due, so the time taken to load it is part of the wait. Pause/stop wake
+     * the wait straight away. The count down is shown once a second.
      */
     private void pauseBetweenPages(WebWalkRunner.WalkStatus runnerStatus) throws InterruptedException {
-        if (runnerStatus == WebWalkRunner.WalkStatus.successfulStep) {
-            int counter = 0;
-            while (counter++ < (BETWEEN_PAGE_SLEEP_TIME * 10)
-                    && !isTaskStopped()) {
-                Thread.sleep(100);
-
-                if (counter % 10 == 0) {
-                    int downCounter = BETWEEN_PAGE_SLEEP_TIME - (counter / 10);
-                    statusLabel.setText("counter = " + downCounter);
+        if (runnerStatus != WebWalkRunner.WalkStatus.successfulStep
+                || isFullSpeed) {
+            nextSlideNanos = 0;
+            return;
+        }
+
+        long theDeadline = nextSlideNanos + BETWEEN_PAGE_SLEEP_NANOS;
+        long theShownSeconds = -1;
+
+        synchronized (this) {
+            while (!taskStopped) {
+                long theRemaining = theDeadline - System.nanoTime();
+
+                if (theRemaining <= 0) {
+                    break;
+                }
+
+                long theSeconds = (theRemaining + 999999999L) / 1000000000L;
+
+                if (theSeconds != theShownSeconds) {
+                    statusLabel.setText("counter = " + theSeconds);
+                    theShownSeconds = theSeconds;
                 }
+
+                // until the count down changes (or the deadline)
+                TimeUnit.NANOSECONDS.timedWait(this, theRemaining - (theSeconds - 1) * 1000000000L);
             }
         }
+
+        nextSlideNanos = theDeadline;
     }
 
     /**
@@ -208,8 +581,91 @@ public class WebWalkController implements Runnable {
     public synchronized void stopTask() {
         theLogger.log(Level.INFO, "Stopping");
         pauseTask();
+        // ends the session - anything still running in it is interrupted
+        theScope.close();
+        theScope = new WalkScope();
+        walkFuture = null;
+        failedPos = -1;
+        retryPos = -1;
+        isRevisiting = false;
         statusLabel.setText("Walking stopped");
+        theRecycler.discardWarmBrowser();
+        theRunner.stop();
+    }
+
+    /**
+     * Stops the walk and gets rid of the browsers (including pooled ones).
+     * To be called when the program is closing (only the first call does
+     * anything).
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (isShutDown) {
+                return;
+            }
+
+            isShutDown = true;
+            taskStopped = true;
+            notifyAll();
+        }
+
+        heartbeatExec.shutdownNow();
+        theRecycler.shutdown();
         theRunner.stop();
+        theRunner.stopPrefetching();
+        theRequeued.shutdown();
+        theRunner.closeScreenDump();
+
+        if (thePostProcessor != null) {
+            thePostProcessor.shutdown(30);
+        }
+
+        if (theLiveServer != null) {
+            theLiveServer.stop();
+        }
+
+        synchronized (this) {
+            theScope.close();
+        }
+
+        browserPool.shutdown();
+    }
+
+    /**
+     *
+     * @param isFullSpeed - whether to go straight on to the next page rather
+     * than waiting SleepTime (e.g. batch walks). At full speed there is no
+     * cadence to keep so nothing is shed.
+     */
+    public void setFullSpeed(boolean isFullSpeed) {
+        this.isFullSpeed = isFullSpeed;
+        theRunner.setStepBudget(isFullSpeed ? 0 : stepBudgetMillis);
+    }
+
+    /**
+     *
+     * @return - how the last run of the walker thread ended - complete,
+     * failedStep or null if it was paused/stopped or had an error.
+     */
+    public WebWalkRunner.WalkStatus getLastOutcome() {
+        return lastOutcome;
+    }
+
+    /**
+     *
+     * @return - snapshot of the walk's status and position (consistent, can
+     * be read from any thread).
+     */
+    public WalkState getWalkState() {
+        return theRunner.getState();
+    }
+
+    /**
+     *
+     * @return - the step measurements for the walk.
+     */
+    public WalkMetrics getMetrics() {
+        return theRunner.getMetrics();
     }
 
     /**
@@ -218,6 +674,10 @@ public class WebWalkController implements Runnable {
     public synchronized void pauseTask() {
         theLogger.log(Level.INFO, "Pausing");
         taskStopped = true;
+        // wakes the wait between pages
+        notifyAll();
+        // e.g. a page being gone to - the walker itself stops at the end of its step
+        theScope.cancelAllBut(walkFuture);
 
         if (theRunner != null) {
             statusLabel.setText("Walking interrupted/paused");
@@ -236,14 +696,6 @@ public class WebWalkController implements Runnable {
         return theBaseURL;
     }
 
-    /**
-     * process case of failure of next page not found.
-     */
-    private void recoverPageNotFound() throws WebDriverException {
-        theLogger.log(Level.INFO, "recoverPageNotFound");
-        goBack();
-    }
-
     /**
      * process case of failure of next page not in english.
      */
@@ -252,39 +704,6 @@ public class WebWalkController implements Runnable {
         goBack();
     }
 
-    /**
-     * process case of failure of next page permission denied.
-     */
-    private void recoverPermissionDenied() throws WebDriverException {
-        theLogger.log(Level.INFO, "recoverPermissionDenied");
-        goBack();
-    }
-
-    /**
-     * process case of failure of page timeout.
-     */
-    private void recoverPageTimeout() throws WebDriverException {
-        theLogger.log(Level.INFO, "recoverPageTimeout");
-        WebWalkRunner.WalkStatus runnerStatus = theRunner.checkStatus();
-
-        if (runnerStatus == WebWalkRunner.WalkStatus.pageTimedOut) {
-            theLogger.log(Level.INFO, "trying refresh");
-            theRunner.refresh();
-            runnerStatus = theRunner.checkStatus();
-        }
-
-        if (runnerStatus == WebWalkRunner.WalkStatus.pageTimedOut) {
-            theLogger.log(Level.INFO, "trying go back");
-            theRunner.goBack();
-            runnerStatus = theRunner.checkStatus();
-        }
-
-        if (runnerStatus == WebWalkRunner.WalkStatus.pageTimedOut) {
-            theLogger.log(Level.INFO, "giving up");
-            theRunner.setStatus(WebWalkRunner.WalkStatus.failedStep);
-        }
-    }
-
     /**
      * process case of failure of next page is a dead end.
      */
@@ -321,6 +740,15 @@ public class WebWalkController implements Runnable {
         return 0;
     }
 
+    /**
+     * Moves the walk to the trail position (to be started there by resume).
+     * @param trailPos
+     * @precon - the walk is stopped.
+     */
+    public void setCurrentTrailPos(int trailPos) {
+        theRunner.setCurrentTrailPos(trailPos);
+    }
+
     /**
      * 
      * @return
@@ -353,7 +781,11 @@ public class WebWalkController implements Runnable {
             StartWorker startWorker = new StartWorker(theRunner);
 
             try {
-                exec.submit(startWorker).get();
+                fork(startWorker).get();
+            } catch (RejectedExecutionException ex) {
+                theLogger.log(Level.INFO, "Start up after shut down ignored");
+            } catch (CancellationException ex) {
+                theLogger.log(Level.INFO, "Start up cancelled");
             } catch (InterruptedException ex) {
                 theLogger.log(Level.SEVERE, null, ex);
             } catch (ExecutionException ex) {
@@ -362,6 +794,13 @@ public class WebWalkController implements Runnable {
         }
     }
 
+    /**
+     * Runs the task in the current walk session.
+     */
+    private synchronized <T> Future<T> fork(Callable<T> theTask) {
+        return theScope.fork(theTask);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null) {
@@ -390,7 +829,11 @@ public class WebWalkController implements Runnable {
             StepToWorker stepWorker = new StepToWorker(theRunner, theNewIndex);
 
             try {
-                exec.submit(stepWorker).get();
+                fork(stepWorker).get();
+            } catch (RejectedExecutionException ex) {
+                theLogger.log(Level.INFO, "Step after shut down ignored");
+            } catch (CancellationException ex) {
+                theLogger.log(Level.INFO, "Step cancelled");
             } catch (InterruptedException ex) {
                 theLogger.log(Level.SEVERE, null, ex);
             } catch (ExecutionException ex) {
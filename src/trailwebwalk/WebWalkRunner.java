@@ -1,21 +1,35 @@
 package trailwebwalk;
 
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.security.auth.login.LoginException;
 import org.openqa.selenium.WebDriverException;
 import trailwebwalk.browser.Browser;
+import trailwebwalk.browser.BrowserLauncher;
+import trailwebwalk.browser.BrowserPool;
 import trailwebwalk.browser.Hyperlink;
 import trailwebwalk.browser.Page;
+import trailwebwalk.capture.BackpressurePolicy;
+import trailwebwalk.capture.DumpQuota;
+import trailwebwalk.capture.EvictionPolicy;
+import trailwebwalk.capture.Frame;
+import trailwebwalk.capture.FrameArchive;
+import trailwebwalk.capture.FrameDeduplicator;
+import trailwebwalk.capture.FingerprintStore;
+import trailwebwalk.capture.HeadCheck;
+import trailwebwalk.capture.PageFingerprint;
+import trailwebwalk.capture.PostProcessor;
+import trailwebwalk.capture.RunManifest;
+import trailwebwalk.capture.ScreenshotWriter;
+import trailwebwalk.live.FrameFanout;
 
 /**
  *
@@ -33,9 +47,18 @@ import trailwebwalk.browser.Page;
 public class WebWalkRunner {
 
     private boolean shouldDumpScreen = false;
-    private String dumpDirBase = "./dumpDir";
-    private String dumpDirName = dumpDirBase;
+    private String dumpDirName = "./dumpDir";
     private int dumpFileNumber = 1;
+    private ScreenshotWriter screenshotWriter = null;
+    private boolean isIncrementalCapture = false;
+    private FingerprintStore fingerprintStore = null;
+    private PostProcessor thePostProcessor = null;
+    private long dumpQuotaBytes = 0;
+    private EvictionPolicy theEvictionPolicy = EvictionPolicy.oldestRun;
+    private int dumpKeepEvery = 4;
+    private static final int HEAD_TIMEOUT = 5000;
+    private TrailPrefetcher thePrefetcher = null;
+    private volatile int maxFailures = 3; // failures in a row before the walk fails
 
     // enum indication of the current status of the walk
     public enum WalkStatus {
@@ -54,16 +77,21 @@ public class WebWalkRunner {
 
         trail
     };
-    private Browser webBrowser = null;
+    private volatile Browser webBrowser = null;
     private final Logger theLogger;
-    private WalkStatus walkStatus = WalkStatus.successfulStep;
-    private int failureCount = 0;
+    // status, failures, trail position and started - replaced (never changed) on each change
+    private final AtomicReference<WalkState> theState = new AtomicReference<WalkState>(
+            new WalkState(WalkStatus.successfulStep, 0, 0, 0, false));
     private String defaultLinkText = "";     // the link that should be selected if applicable
     private URL initialURL = null; // starting URL
     private final String theTrailFileName; // name of file that includes trail to be followed
     private List<TrailItem> theTrail = null;  // trail of urls to be visited
-    private ListIterator<TrailItem> trailIterator = null;
-    private String profileId = "";
+    private final BrowserPool browserPool;
+    private WalkMetrics theMetrics = new WalkMetrics("none");
+    private volatile LoadShedder theShedder = null;
+    private long sheddableMillis = 0; // time the step spent on work that can be shed (walker thread)
+    private FrameFanout theLiveFrames = null;
+    private static final int SHED_THUMBNAIL_WIDTH = 320; // if no thumbnail width is set
 
     /**
      *
@@ -76,7 +104,22 @@ public class WebWalkRunner {
     public WebWalkRunner(String profileId,
             String trailFile,
             Logger newLogger) {
-        this.profileId = profileId;
+        this(new BrowserPool(new BrowserLauncher(profileId, newLogger), 0, false, newLogger),
+                trailFile, newLogger);
+    }
+
+    /**
+     *
+     * @param browserPool - where the browsers are got from (and returned to)
+     * @param trailFile
+     * @param newLogger - valid logger for output info
+     * @precon - as per invariant/param spec
+     * @postcon - as per invariant
+     */
+    public WebWalkRunner(BrowserPool browserPool,
+            String trailFile,
+            Logger newLogger) {
+        this.browserPool = browserPool;
         defaultLinkText = "";
         theTrailFileName = trailFile;
         theLogger = newLogger;
@@ -105,12 +148,19 @@ public class WebWalkRunner {
      */
     public void startUp() throws WebDriverException {
         theLogger.log(Level.INFO, "Start up");
-        webBrowser = new Browser(profileId, theLogger);
+        webBrowser = browserPool.acquire();
+        changeState(new StateChange() {
+
+            public WalkState apply(WalkState theOld) {
+                return theOld.withStarted(true);
+            }
+        });
         boolean isStumbleUpon = false;
         String idString = "";
         String passwordString = "";
 
         try {
+            prefetchAhead();
             webBrowser.start(initialURL, isStumbleUpon, idString, passwordString);
             setStatus(WalkStatus.successfulStep);
         } catch (LoginException ex) {
@@ -128,6 +178,31 @@ public class WebWalkRunner {
         }
     }
 
+    /**
+     * Starts up (as above) and then goes to the current trail item (e.g. when
+     * a stopped walk is carried on with a new browser).
+     * @throws WebDriverException - as per startUp.
+     */
+    public void startUpAtCurrentItem() throws WebDriverException {
+        startUp();
+
+        if (checkStatus() == WalkStatus.successfulStep
+                && getCurrentTrailPos() > 0) {
+            try {
+                setStatus(gotoTrailItem(theTrail.get(getCurrentTrailPos())));
+            } catch (WebDriverException theEx) {
+                if (isExceptionTimeout(theEx)) {
+                    theLogger.log(Level.WARNING,
+                            "Socket Timeout exception", theEx);
+                    webBrowser.stopPageLoad();
+                    setStatus(WalkStatus.pageTimedOut);
+                } else {
+                    throw theEx;
+                }
+            }
+        }
+    }
+
     /**
      *
      * @return - the type of walk
@@ -180,18 +255,25 @@ public class WebWalkRunner {
     /**
      * @precon - as per invariant
      * @postcon - loading of the page in the browser has been interrupted.
-     * @postcon - browser is closed.
+     * @postcon - browser is returned to the pool (or closed).
      */
     public void stop() {
         theLogger.log(Level.INFO, "Stop");
+        changeState(new StateChange() {
 
-        if (webBrowser != null) {
+            public WalkState apply(WalkState theOld) {
+                return theOld.withStarted(false);
+            }
+        });
+        Browser theBrowser = webBrowser;
+        webBrowser = null;
+
+        if (theBrowser != null) {
             try {
-                webBrowser.quit();
+                browserPool.release(theBrowser);
             } catch (WebDriverException ex) {
                 theLogger.log(Level.INFO, "WebDriverException caught on trying to close down - ignored");
             }
-            webBrowser = null;
         }
 
         setStatus(WalkStatus.successfulStep);
@@ -210,45 +292,30 @@ public class WebWalkRunner {
     public void step() throws WebDriverException {
         theLogger.log(Level.INFO, "Step");
         String currentPageURL = webBrowser.getCurrentPageURL();
+        // only what shedding can save is measured, not the page load
+        sheddableMillis = 0;
 
         theLogger.log(Level.INFO, "Current page: {0}",
                 currentPageURL);
         
         if (checkStatus() == WalkStatus.successfulStep) {
+            long theCaptureStartTime = System.currentTimeMillis();
             dumpScreen();
+            sheddableMillis += System.currentTimeMillis() - theCaptureStartTime;
         }
          
         try {
             Page webPage = webBrowser.getCurrentPage();
             Hyperlink link = null;
+            WalkStatus theLoadedStatus = WalkStatus.successfulStep;
 
-            if (trailIterator != null) {
-                if (trailIterator.hasNext()) {
-                    TrailItem theItem = trailIterator.next();
-                    String theURL = theItem.getURL().toString();
-                    webBrowser.gotoURL(theURL);
-                    String theTargetType = theItem.getTargetType();
-
-                    if (!theTargetType.isEmpty()) {
-                        String theTargetValue = theItem.getTargetValue();
-                        String theTargetAttribute = theItem.getTargetAttribute();
-                        String theFullTargetXPath = "html/body//" + theTargetType + "[@" + theTargetAttribute + "='" + theTargetValue + "']";
-
-                        // getting to the target is a bonus - it fails just ignore it
-                        try {
-                            webBrowser.clickOnXPathItem(theFullTargetXPath);
-                        } catch (Exception theEx) {
-                            theLogger.log(Level.WARNING,
-                                    "Failed to click target", theEx);
-                        }
-                    }
+            if (theTrail != null) {
+                if (!isAtEnd()) {
+                    int theNextPos = getCurrentTrailPos() + 1;
+                    setCurrentTrailPos(theNextPos);
+                    theLoadedStatus = gotoTrailItem(theTrail.get(theNextPos));
                 } else {
-                    try {
-                        Thread.sleep(5);
-                        dumpScreen();
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(WebWalkRunner.class.getName()).log(Level.SEVERE, null, ex);
-                    }
+                    // the last page has already been dumped at the start of this step
                     setStatus(WalkStatus.complete);
                 }
             }
@@ -258,7 +325,7 @@ public class WebWalkRunner {
             theLogger.log(Level.INFO, "New page: {0}", newPageURL);
 
             if (checkStatus() != WalkStatus.complete) {
-                setStatus(WalkStatus.successfulStep);
+                setStatus(theLoadedStatus);
             }
 
             theLogger.log(Level.INFO, "Status set");
@@ -274,15 +341,89 @@ public class WebWalkRunner {
         }
 
         if (checkStatus() != WalkStatus.successfulStep) {
-            if (failureCount > 3) {
+            if (theState.get().getFailureCount() > maxFailures) {
                 setStatus(WalkStatus.failedStep);
             }
         }
+
+        adjustShedding(sheddableMillis);
+    }
+
+    /**
+     * Sheds (or takes back on) optional work depending on how long the step
+     * took compared with the budget.
+     * @param stepMillis - how long the step took.
+     */
+    private void adjustShedding(long stepMillis) {
+        if (theShedder == null) {
+            return;
+        }
+
+        LoadShedder.ShedLevel thePreviousLevel = theShedder.getLevel();
+        LoadShedder.ShedLevel theLevel = theShedder.recordStep(stepMillis);
+        theMetrics.recordShedLevel(theLevel);
+
+        if (theLevel != thePreviousLevel) {
+            theLogger.log(Level.INFO, "Optional work took {0}ms (budget {1}ms) - shedding changed from {2} to {3}",
+                    new Object[]{Long.toString(stepMillis), Long.toString(theShedder.getBudgetMillis()),
+                        thePreviousLevel, theLevel});
+        }
+
+        ScreenshotWriter theWriter = screenshotWriter;
+
+        if (theWriter != null) {
+            theWriter.setDedupOn(!theShedder.isShedding(LoadShedder.ShedLevel.skipDedup));
+            int theThumbnailWidth = (thePostProcessor != null && thePostProcessor.getThumbnailWidth() > 0)
+                    ? thePostProcessor.getThumbnailWidth() : SHED_THUMBNAIL_WIDTH;
+            theWriter.setThumbnailOnly(theShedder.isShedding(LoadShedder.ShedLevel.thumbnailOnly)
+                    ? theThumbnailWidth : 0);
+        }
+    }
+
+    /**
+     *
+     * @param budgetMillis - how long the optional work of a step (capture and
+     * target click, not the page load) should take before some of it is shed
+     * (0 for no shedding).
+     */
+    public void setStepBudget(long budgetMillis) {
+        theShedder = (budgetMillis > 0) ? new LoadShedder(budgetMillis) : null;
+        ScreenshotWriter theWriter = screenshotWriter;
+
+        if (theShedder == null && theWriter != null) {
+            // anything shed before is taken back on
+            theWriter.setDedupOn(true);
+            theWriter.setThumbnailOnly(0);
+        }
+    }
+
+    /**
+     * Sets how many failed steps in a row there can be before a step fails
+     * the walk (whatever the recovery policy is).
+     * @param theCount
+     */
+    public void setMaxFailures(int theCount) {
+        maxFailures = theCount;
+    }
+
+    public int getMaxFailures() {
+        return maxFailures;
+    }
+
+    /**
+     * Captures the current page if it was reached (for moves that do not
+     * capture the page being left, i.e. stepTo).
+     */
+    public void captureCurrentPage() {
+        if (checkStatus() == WalkStatus.successfulStep) {
+            dumpScreen();
+        }
     }
 
     /**
      * steps forward to next random link.
-     * @param trailPos 
+     * @param trailPos - a position past either end of the trail is ignored
+     * (the walk stays where it is).
      * @precon - as per invariant
      * @postcon - that the browser has moved on one page and status is set to
      * success.
@@ -300,39 +441,15 @@ public class WebWalkRunner {
               
         try {
             int theCurrentPos = getCurrentTrailPos();
+            WalkStatus theLoadedStatus = WalkStatus.successfulStep;
 
-            if (trailIterator != null
-                    && theCurrentPos != trailPos) {
-                TrailItem theItem = null;
-
-                if (theCurrentPos < trailPos) {
-                    while (getCurrentTrailPos() < trailPos
-                            && trailIterator.hasNext()) {
-                        theItem = trailIterator.next();
-                    }
+            if (theTrail != null && theCurrentPos != trailPos) {
+                if (trailPos < 0 || trailPos >= theTrail.size()) {
+                    theLogger.log(Level.INFO, "Position {0} is not on the trail - staying at {1}",
+                            new Object[]{Integer.toString(trailPos), Integer.toString(theCurrentPos)});
                 } else {
-                    while (getCurrentTrailPos() > (trailPos - 1)
-                            && trailIterator.hasPrevious()) {
-                        theItem = trailIterator.previous();
-                    }
-                }
-
-                String theURL = theItem.getURL().toString();
-                webBrowser.gotoURL(theURL);
-                String theTargetType = theItem.getTargetType();
-
-                if (!theTargetType.isEmpty()) {
-                    String theTargetValue = theItem.getTargetValue();
-                    String theTargetAttribute = theItem.getTargetAttribute();
-                    String theFullTargetXPath = "html/body//" + theTargetType + "[@" + theTargetAttribute + "='" + theTargetValue + "']";
-
-                    // getting to the target is a bonus - it fails just ignore it
-                    try {
-                        webBrowser.clickOnXPathItem(theFullTargetXPath);
-                    } catch (Exception theEx) {
-                        theLogger.log(Level.WARNING,
-                                "Failed to click target", theEx);
-                    }
+                    setCurrentTrailPos(trailPos);
+                    theLoadedStatus = gotoTrailItem(theTrail.get(trailPos));
                 }
             }
 
@@ -341,7 +458,7 @@ public class WebWalkRunner {
             theLogger.log(Level.INFO, "New page: {0}", newPageURL);
 
             if (checkStatus() != WalkStatus.complete) {
-                setStatus(WalkStatus.successfulStep);
+                setStatus(theLoadedStatus);
             }
 
             theLogger.log(Level.INFO, "Status set");
@@ -357,12 +474,318 @@ public class WebWalkRunner {
         }
 
         if (checkStatus() != WalkStatus.successfulStep) {
-            if (failureCount > 3) {
+            if (theState.get().getFailureCount() > maxFailures) {
                 setStatus(WalkStatus.failedStep);
             }
         }
     }
 
+    /**
+     * Points the browser at the trail item's URL and then tries to click on
+     * its target (if it has one).
+     * @param theItem - a valid trail item
+     * @return - successfulStep, or pageNotFound / permissionDenied if the page
+     * was served as an HTTP error.
+     * @precon - as per invariant/param spec
+     * @postcon - the browser is pointing to the item's page.
+     * @throws WebDriverException - if the page could not be got.
+     */
+    private WalkStatus gotoTrailItem(TrailItem theItem) throws WebDriverException {
+        long theStartTime = System.currentTimeMillis();
+        WalkStatus theStatus = null;
+        // the next items are checked while this one loads
+        prefetchAhead();
+
+        try {
+            int theResponseStatus = gotoTrailItem(webBrowser, theItem);
+            TrailPrefetcher theCurrentPrefetcher = thePrefetcher;
+
+            if (theResponseStatus != 0) {
+                theStatus = getStatusForResponse(theResponseStatus);
+            } else if (theCurrentPrefetcher != null) {
+                // the browser does not say (it never does with this driver) - the check made ahead
+                // (if done) will, but it is made without the browser's cookies or user agent so only
+                // its not found is believed
+                theResponseStatus = theCurrentPrefetcher.getStatus(getCurrentTrailPos(),
+                        theItem.getURL().toString());
+                theStatus = (getStatusForResponse(theResponseStatus) == WalkStatus.pageNotFound)
+                        ? WalkStatus.pageNotFound : WalkStatus.successfulStep;
+
+                if (theStatus != WalkStatus.successfulStep) {
+                    // a retry of the page should not be answered by the same check
+                    theCurrentPrefetcher.forget(getCurrentTrailPos());
+                }
+            } else {
+                theStatus = WalkStatus.successfulStep;
+            }
+
+            if (theStatus != WalkStatus.successfulStep) {
+                theLogger.log(Level.INFO, "HTTP {0} for {1}",
+                        new Object[]{Integer.toString(theResponseStatus), theItem.getURL()});
+            }
+        } finally {
+            long theLoadTime = System.currentTimeMillis() - theStartTime;
+            Browser theBrowser = webBrowser;
+            long theBrowserKB = (theBrowser == null) ? 0 : theBrowser.getResidentKB();
+            theMetrics.recordStep(theLoadTime, theBrowserKB, theStatus == WalkStatus.successfulStep);
+            theLogger.log(Level.INFO, "Loaded in {0}ms - {1}",
+                    new Object[]{Long.toString(theLoadTime), theMetrics});
+        }
+
+        return theStatus;
+    }
+
+    /**
+     *
+     * @param theResponseStatus - HTTP status (0 if not known).
+     * @return - the walk status for a page served with it.
+     */
+    private static WalkStatus getStatusForResponse(int theResponseStatus) {
+        switch (theResponseStatus) {
+            case 404:
+            case 410:
+                return WalkStatus.pageNotFound;
+            case 401:
+            case 403:
+                return WalkStatus.permissionDenied;
+            default:
+                return WalkStatus.successfulStep;
+        }
+    }
+
+    /**
+     * As above but for the specified browser.
+     * @return - the HTTP status the page was served with (0 if not known).
+     */
+    private int gotoTrailItem(Browser theBrowser,
+            TrailItem theItem) throws WebDriverException {
+        String theURL = theItem.getURL().toString();
+        theBrowser.gotoURL(theURL);
+        // one script call - no point looking for the target on an error page
+        int theResponseStatus = theBrowser.getResponseStatus();
+
+        if (getStatusForResponse(theResponseStatus) != WalkStatus.successfulStep) {
+            return theResponseStatus;
+        }
+
+        String theTargetType = theItem.getTargetType();
+        LoadShedder theCurrentShedder = theShedder;
+
+        if (theCurrentShedder != null
+                && theCurrentShedder.isShedding(LoadShedder.ShedLevel.skipTargetClick)) {
+            return theResponseStatus;
+        }
+
+        if (!theTargetType.isEmpty()) {
+            String theFullTargetXPath = getTargetXPath(theItem);
+
+            long theClickStartTime = System.currentTimeMillis();
+
+            // getting to the target is a bonus - it fails just ignore it
+            try {
+                theBrowser.clickOnXPathItem(theFullTargetXPath);
+            } catch (Exception theEx) {
+                theLogger.log(Level.WARNING,
+                        "Failed to click target", theEx);
+            }
+
+            if (theBrowser == webBrowser) {
+                // not for a browser warming up
+                sheddableMillis += System.currentTimeMillis() - theClickStartTime;
+            }
+        }
+
+        return theResponseStatus;
+    }
+
+    /**
+     *
+     * @param theItem - item with a target.
+     * @return - the XPath of the item's target.
+     */
+    private String getTargetXPath(TrailItem theItem) {
+        return "html/body//" + theItem.getTargetType() + "[@" + theItem.getTargetAttribute()
+                + "='" + theItem.getTargetValue() + "']";
+    }
+
+    /**
+     * Lightweight check (does not go through the web driver) used as a
+     * heartbeat.
+     * @return - whether the browser looks to be alive, true if there is no
+     * browser (before start or after stop).
+     * @precon - as per invariant
+     * @postcon - as per invariant/return
+     */
+    public boolean isBrowserProcessAlive() {
+        Browser theBrowser = webBrowser;
+
+        if (theBrowser == null) {
+            return true;
+        }
+
+        if (theBrowser.hasKnownProcess()) {
+            return theBrowser.isProcessAlive();
+        }
+
+        return theBrowser.isAlive();
+    }
+
+    /**
+     * If the browser has died (the window has been shut or the driver has gone)
+     * start a new one with the same profile, restore the visited history and
+     * go to the current trail position.
+     * Synchronised so that the heartbeat and the walker thread don't both do it.
+     * @return - whether the browser had to be respawned.
+     * @precon - as per invariant
+     * @postcon - the browser is valid and pointing to the current trail item
+     * (or the status is set to pageTimedOut).
+     * @throws WebDriverException - if the new browser fails.
+     */
+    public synchronized boolean respawnIfDead() throws WebDriverException {
+        return respawnIfDead(webBrowser);
+    }
+
+    /**
+     * As above for a browser that a step failed with (e.g. from the walker
+     * thread, where the heartbeat may have respawned it first).
+     * @param theFailedBrowser - the browser in use when the step failed.
+     * @return - whether the browser had to be (or already has been)
+     * respawned.
+     * @throws WebDriverException - if the new browser fails.
+     */
+    public synchronized boolean respawnIfDead(Browser theFailedBrowser) throws WebDriverException {
+        Browser theDeadBrowser = webBrowser;
+
+        if (theDeadBrowser != theFailedBrowser && theDeadBrowser != null) {
+            theLogger.log(Level.INFO, "Browser already respawned");
+            return true;
+        }
+
+        if (theDeadBrowser == null
+                || (theDeadBrowser.isProcessAlive() && theDeadBrowser.isAlive())) {
+            return false;
+        }
+
+        theLogger.log(Level.WARNING, "Browser has died - respawning at trail position {0}",
+                Integer.toString(getCurrentTrailPos()));
+
+        List<String> theHistory = theDeadBrowser.getVisitedURLs();
+        discardBrowser(theDeadBrowser);
+
+        Browser theNewBrowser = browserPool.acquire();
+        theNewBrowser.restoreHistory(theHistory);
+        webBrowser = theNewBrowser;
+
+        try {
+            WalkStatus theLoadedStatus = WalkStatus.successfulStep;
+
+            if (theTrail != null && !theTrail.isEmpty()) {
+                theLoadedStatus = gotoTrailItem(theTrail.get(getCurrentTrailPos()));
+            }
+
+            setStatus(theLoadedStatus);
+        } catch (WebDriverException theEx) {
+            if (isExceptionTimeout(theEx)) {
+                theLogger.log(Level.WARNING,
+                        "Socket Timeout exception", theEx);
+                webBrowser.stopPageLoad();
+                setStatus(WalkStatus.pageTimedOut);
+            } else {
+                throw theEx;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts a new browser with the same profile and points it at the current
+     * trail item so that it is ready to be swapped in (see swapBrowser).
+     * Does not touch the browser in use so can be run in the background.
+     * @return - the new browser (or null if there is no browser in use).
+     * @precon - as per invariant
+     * @postcon - as per invariant/return
+     * @throws WebDriverException - if the new browser fails.
+     */
+    public Browser warmUpBrowser() throws WebDriverException {
+        if (webBrowser == null) {
+            return null;
+        }
+
+        Browser theNewBrowser = browserPool.acquire();
+
+        if (theTrail != null && !theTrail.isEmpty()) {
+            gotoTrailItem(theNewBrowser, theTrail.get(getCurrentTrailPos()));
+        }
+
+        return theNewBrowser;
+    }
+
+    /**
+     * Replaces the browser in use with the one passed (e.g. one from
+     * warmUpBrowser). The visited history is carried over.
+     * The walk may have moved on while the browser was warming up, so if it is
+     * not on the current trail item it is sent there first (the browser in
+     * use is shown until then).
+     * @param theNewBrowser - valid browser.
+     * @return - the browser that was in use (the caller should quit it) or
+     * the param if the walk has been stopped in the meantime or the param
+     * could not get to the current item.
+     * @precon - as per invariant/param spec
+     * @postcon - as per invariant
+     */
+    public synchronized Browser swapBrowser(Browser theNewBrowser) {
+        Browser theOldBrowser = webBrowser;
+
+        if (theOldBrowser == null) {
+            return theNewBrowser;
+        }
+
+        if (theTrail != null && !theTrail.isEmpty()) {
+            TrailItem theItem = theTrail.get(getCurrentTrailPos());
+            List<String> theWarmURLs = theNewBrowser.getVisitedURLs();
+            String theWarmURL = theWarmURLs.isEmpty() ? "" : theWarmURLs.get(theWarmURLs.size() - 1);
+
+            if (!theWarmURL.equals(theItem.getURL().toString())) {
+                theLogger.log(Level.INFO, "Warm browser catching up to {0}", theItem.getURL());
+
+                try {
+                    gotoTrailItem(theNewBrowser, theItem);
+                } catch (WebDriverException theEx) {
+                    theLogger.log(Level.WARNING, "Warm browser failed to catch up - not swapped", theEx);
+                    return theNewBrowser;
+                }
+            }
+        }
+
+        // the old browser's history ends with the current item
+        theNewBrowser.restoreHistory(theOldBrowser.getVisitedURLs());
+        webBrowser = theNewBrowser;
+
+        return theOldBrowser;
+    }
+
+    /**
+     * Quits a browser that is no longer wanted (e.g. one replaced by
+     * swapBrowser) rather than returning it to the pool.
+     * @param theBrowser - browser that is not in use.
+     */
+    public void discardBrowser(Browser theBrowser) {
+        try {
+            browserPool.discard(theBrowser);
+        } catch (WebDriverException ex) {
+            theLogger.log(Level.INFO, "WebDriverException caught on trying to close down - ignored");
+        }
+    }
+
+    /**
+     *
+     * @return - the browser in use (or null if there is none).
+     */
+    Browser getBrowser() {
+        return webBrowser;
+    }
+
     /**
      * causes the browser to refresh the current page.
      * @precon - as per invariant
@@ -377,7 +800,7 @@ public class WebWalkRunner {
             webBrowser.refresh();
 
             Page newPage = webBrowser.getCurrentPage();
-            setStatus(WalkStatus.successfulStep);
+            setStatus(getStatusForResponse(webBrowser.getResponseStatus()));
         } catch (WebDriverException theEx) {
             if (isExceptionTimeout(theEx)) {
                 theLogger.log(Level.WARNING,
@@ -401,7 +824,7 @@ public class WebWalkRunner {
         theLogger.log(Level.INFO, "GoBack");
         try {
             webBrowser.goBack();
-            String theURL = trailIterator.previous().toString();
+            setCurrentTrailPos(getCurrentTrailPos() - 1);
             setStatus(WalkStatus.successfulStep);
         } catch (WebDriverException theEx) {
             if (isExceptionTimeout(theEx)) {
@@ -421,13 +844,16 @@ public class WebWalkRunner {
      * @postcon - as per invariant/return
      */
     public boolean isStarted() {
-        if (webBrowser != null) {
-            if (webBrowser.containsLink(defaultLinkText)) {
-                return true;
-            }
-        }
+        return theState.get().isStarted() && webBrowser != null;
+    }
 
-        return false;
+    /**
+     *
+     * @return - the state of the walk (consistent, can be read from any
+     * thread).
+     */
+    public WalkState getState() {
+        return theState.get();
     }
 
     /**
@@ -436,7 +862,7 @@ public class WebWalkRunner {
      * @postcon - as per invariant/return
      */
     public WebWalkRunner.WalkStatus checkStatus() {
-        return walkStatus;
+        return theState.get().getStatus();
     }
 
     /**
@@ -445,7 +871,7 @@ public class WebWalkRunner {
      * @postcon - as per invariant/return
      */
     public boolean hasFailed() {
-        if (walkStatus == WalkStatus.successfulStep) {
+        if (checkStatus() == WalkStatus.successfulStep) {
             return true;
         } else {
             return false;
@@ -459,16 +885,40 @@ public class WebWalkRunner {
      * @postcon - as per invariant
      * @postcon - status is as per the newStatus param
      */
-    public void setStatus(WalkStatus newStatus) {
+    public void setStatus(final WalkStatus newStatus) {
         theLogger.log(Level.INFO, "SetStatus: " + newStatus.toString(),
                 newStatus);
-        if (newStatus == WalkStatus.successfulStep) {
-            failureCount = 0;
-        } else {
-            ++failureCount;
-        }
+        changeState(new StateChange() {
+
+            public WalkState apply(WalkState theOld) {
+                return theOld.withStatus(newStatus);
+            }
+        });
+    }
+
+    /**
+     * A change to the walk state (applied to the latest snapshot).
+     */
+    private interface StateChange {
+
+        WalkState apply(WalkState theOld);
+    }
+
+    /**
+     * Publishes the changed state (trying again if another thread changed it
+     * in the meantime).
+     * @param theChange
+     * @return - the new state.
+     */
+    private WalkState changeState(StateChange theChange) {
+        while (true) {
+            WalkState theOld = theState.get();
+            WalkState theNew = theChange.apply(theOld);
 
-        walkStatus = newStatus;
+            if (theState.compareAndSet(theOld, theNew)) {
+                return theNew;
+            }
+        }
     }
 
     /**
@@ -504,41 +954,11 @@ public class WebWalkRunner {
      * @postcon - as per invariant/return value
      */
     private void initTrail() {
-        theTrail = new ArrayList<TrailItem>();
-        List<String[]> fileData = CSVFile.getFileData(theTrailFileName, "\\|");
-
-        Iterator<String[]> theIterator = fileData.iterator();
-
-        while (theIterator.hasNext()) {
-            String theLineArr[] = theIterator.next();
-
-            if (theLineArr.length > 1) {
-                String theLabel = theLineArr[0];
-                String theURL = theLineArr[1].trim();
-                String theTargetAttribute = "";
-                String theTargetValue = "";
-                String theTargetType = "";
+        theTrail = TrailCache.getTrail(theTrailFileName, theLogger);
+        theState.set(new WalkState(WalkStatus.successfulStep, 0, 0, theTrail.size(), false));
 
-                if (theLineArr.length > 4) {
-                    theTargetType = theLineArr[2].trim();
-                    theTargetAttribute = theLineArr[3].trim();
-                    theTargetValue = theLineArr[4].trim();
-                }
-
-                try {
-                    URL theTrailURL = new URL(theURL);
-                    TrailItem theTrailItem = new TrailItem(theLabel,
-                            theTrailURL, theTargetType, theTargetAttribute, theTargetValue);
-                    theTrail.add(theTrailItem);
-                } catch (MalformedURLException ex) {
-                    theLogger.log(Level.WARNING, "Failed making URL from{0}", theURL);
-                }
-            }
-        }
-
-        trailIterator = theTrail.listIterator();
-        if (trailIterator.hasNext()) {
-            initialURL = trailIterator.next().getURL();
+        if (!theTrail.isEmpty()) {
+            initialURL = theTrail.get(0).getURL();
         }
     }
 
@@ -547,12 +967,21 @@ public class WebWalkRunner {
      * @return
      */
     public int getCurrentTrailPos() {
-        if (trailIterator != null) {
-            int thePos = trailIterator.nextIndex() - 1;
-            return thePos;
-        }
+        return theState.get().getTrailPos();
+    }
 
-        return 0;
+    /**
+     * Moves the trail position without going to the page (e.g. before
+     * startUpAtCurrentItem).
+     * @param trailPos - new position (kept within the trail).
+     */
+    public void setCurrentTrailPos(final int trailPos) {
+        changeState(new StateChange() {
+
+            public WalkState apply(WalkState theOld) {
+                return theOld.withTrailPos(trailPos);
+            }
+        });
     }
 
     /**
@@ -560,15 +989,7 @@ public class WebWalkRunner {
      * @return
      */
     public boolean isAtEnd() {
-        if (trailIterator != null) {
-            int theCurrIndex = getCurrentTrailPos();
-
-            if (theCurrIndex < (theTrail.size() - 1)) {
-                return false;
-            }
-        }
-
-        return true;
+        return theState.get().isAtEnd();
     }
 
     /**
@@ -576,15 +997,7 @@ public class WebWalkRunner {
      * @return
      */
     public boolean isAtStart() {
-        if (trailIterator != null) {
-            int theCurrIndex = getCurrentTrailPos();
-
-            if (theCurrIndex > 0) {
-                return false;
-            }
-        }
-
-        return true;
+        return theState.get().isAtStart();
     }
 
     /**
@@ -602,43 +1015,305 @@ public class WebWalkRunner {
         return retVal;
     }
 
+    /**
+     *
+     * @param newMetrics - where the steps are recorded.
+     */
+    public void setMetrics(WalkMetrics newMetrics) {
+        theMetrics = newMetrics;
+    }
+
+    /**
+     *
+     * @return - the step measurements for this walk.
+     */
+    public WalkMetrics getMetrics() {
+        return theMetrics;
+    }
+
     /**
      * 
      * @param shouldDumpScreen
      */
     public void setShouldDump(boolean shouldDumpScreen) {
-        if (shouldDumpScreen) {
-            boolean exists = true;
-            int dirNumber = 1;
+        setShouldDump(shouldDumpScreen, BackpressurePolicy.block, 8, null);
+    }
 
-            while (exists) {
-                dumpDirName = dumpDirBase + Integer.toString(dirNumber);
-                exists = (new File(dumpDirName)).exists();
+    /**
+     *
+     * @param shouldDumpScreen
+     * @param thePolicy - what to do when the screenshot writer falls behind.
+     * @param queueSize - how many screenshots can wait to be written.
+     * @param theDeduplicator - null if all screenshots are to be stored.
+     */
+    public void setShouldDump(boolean shouldDumpScreen,
+            BackpressurePolicy thePolicy,
+            int queueSize,
+            FrameDeduplicator theDeduplicator) {
+        if (shouldDumpScreen) {
+            try {
+                closeScreenDump();
+                RunManifest theManifest = new RunManifest(new File(dumpDirName));
+                int theRun = theManifest.startRun();
+                fingerprintStore = isIncrementalCapture
+                        ? new FingerprintStore(theManifest.getDumpDir()) : null;
+
+                if (thePrefetcher != null) {
+                    thePrefetcher.setFingerprints(fingerprintStore);
+                }
+                DumpQuota theQuota = null;
 
-                if (exists) {
-                    ++dirNumber;
+                if (dumpQuotaBytes > 0) {
+                    theQuota = new DumpQuota(theManifest, dumpQuotaBytes, theEvictionPolicy,
+                            dumpKeepEvery, fingerprintStore, theLogger);
+                    theQuota.makeRoom(theRun, 0);
+                    theLogger.log(Level.INFO, "Screenshot space: {0}", theQuota);
                 }
-            }
 
-            boolean success = (new File(dumpDirName)).mkdir();
-            if (success) {
+                FrameArchive theArchive = new FrameArchive(theManifest, theRun, theQuota);
+                theLogger.log(Level.INFO, "Screenshots go to run {0} in {1}",
+                        new Object[]{Integer.toString(theRun), dumpDirName});
                 dumpFileNumber = 1;
+                screenshotWriter = new ScreenshotWriter(theArchive, thePolicy, queueSize,
+                        theDeduplicator, fingerprintStore, thePostProcessor, theLogger);
                 this.shouldDumpScreen = shouldDumpScreen;
+            } catch (IOException ex) {
+                theLogger.log(Level.WARNING, "Failed to start screenshot run", ex);
             }
         }
     }
-    
+
+    /**
+     *
+     * @param newDumpDirName - directory the screenshot runs are kept in (to be
+     * set before setShouldDump).
+     */
+    public void setDumpDir(String newDumpDirName) {
+        dumpDirName = newDumpDirName;
+    }
+
+    /**
+     *
+     * @param isIncrementalCapture - whether pages that have not changed since
+     * the last run are linked to that run's screenshot rather than captured
+     * again (to be set before setShouldDump).
+     */
+    public void setIncrementalCapture(boolean isIncrementalCapture) {
+        this.isIncrementalCapture = isIncrementalCapture;
+    }
+
+    /**
+     * Limits the space taken by the screenshot runs (to be set before
+     * setShouldDump).
+     * @param quotaBytes - the most the runs can take (0 for no limit).
+     * @param thePolicy - what is got rid of when the limit is reached.
+     * @param keepEvery - the frames kept when runs are thinned.
+     */
+    public void setDumpQuota(long quotaBytes,
+            EvictionPolicy thePolicy,
+            int keepEvery) {
+        dumpQuotaBytes = quotaBytes;
+        theEvictionPolicy = thePolicy;
+        dumpKeepEvery = keepEvery;
+    }
+
+    /**
+     * Sets how many trail items ahead of the walker are checked (HEAD
+     * requests) while it is on the current one.
+     * @param depth - 0 for no look ahead.
+     */
+    public void setPrefetchDepth(int depth) {
+        stopPrefetching();
+
+        if (depth > 0 && theTrail != null) {
+            thePrefetcher = new TrailPrefetcher(theTrail, depth, HEAD_TIMEOUT, theLogger);
+            thePrefetcher.setFingerprints(fingerprintStore);
+        }
+    }
+
+    /**
+     * Stops the look ahead (if any).
+     */
+    public void stopPrefetching() {
+        TrailPrefetcher theOldPrefetcher = thePrefetcher;
+        thePrefetcher = null;
+
+        if (theOldPrefetcher != null) {
+            theOldPrefetcher.shutdown();
+        }
+    }
+
+    private void prefetchAhead() {
+        TrailPrefetcher theCurrentPrefetcher = thePrefetcher;
+
+        if (theCurrentPrefetcher != null) {
+            theCurrentPrefetcher.advanceTo(getCurrentTrailPos());
+        }
+    }
+
+    /**
+     *
+     * @param newPostProcessor - makes thumbnails etc. of the screenshots
+     * (null for none, to be set before setShouldDump).
+     */
+    public void setPostProcessor(PostProcessor newPostProcessor) {
+        thePostProcessor = newPostProcessor;
+    }
+
+    /**
+     * Writes any screenshots still waiting and stops dumping.
+     */
+    public void closeScreenDump() {
+        shouldDumpScreen = false;
+
+        if (screenshotWriter != null) {
+            screenshotWriter.close();
+            theLogger.log(Level.INFO, "Screenshots written {0} ({1} duplicates, {2} unchanged), dropped {3}",
+                    new Object[]{Integer.toString(screenshotWriter.getWrittenCount()),
+                        Integer.toString(screenshotWriter.getDuplicateCount()),
+                        Integer.toString(screenshotWriter.getLinkedCount()),
+                        Integer.toString(screenshotWriter.getDroppedCount())});
+            screenshotWriter = null;
+        }
+    }
+
+    /**
+     * Captures the current page and hands it to the writer (which writes it to
+     * disk on its own thread). With incremental capture a page that has not
+     * changed since it was last captured is linked to that capture instead.
+     */
     private void dumpScreen(){
-        if (shouldDumpScreen) {
-            String dumpFilePath = dumpDirName + "/dump" + Integer.toString(dumpFileNumber) + ".png";
+        if (!webBrowser.canCaptureScreen()) {
+            return;
+        }
+
+        if (theShedder != null && theShedder.isShedding(LoadShedder.ShedLevel.skipCapture)) {
+            theLogger.log(Level.INFO, "Capture shed");
+            return;
+        }
 
+        if (shouldDumpScreen) {
             try {
-                webBrowser.dumpScreen(dumpFilePath);
-                ++dumpFileNumber;
-            } catch (IOException ex) {
+                String theURL = webBrowser.getCurrentPageURL();
+                Frame theFrame;
+
+                if (fingerprintStore == null) {
+                    theFrame = new Frame(dumpFileNumber, getCurrentTrailPos(),
+                            theURL, webBrowser.captureScreen());
+                } else {
+                    PageFingerprint thePrevious = fingerprintStore.get(theURL);
+                    PageFingerprint theFingerprint = takeFingerprint(theURL, thePrevious);
+
+                    if (thePrevious != null && thePrevious.hasCapture()
+                            && theFingerprint.isSameContent(thePrevious)) {
+                        theLogger.log(Level.INFO, "Unchanged since run {0}: {1}",
+                                new Object[]{Integer.toString(thePrevious.getRun()), theURL});
+                        theFrame = Frame.linkedFrame(dumpFileNumber, getCurrentTrailPos(),
+                                theURL, thePrevious);
+                    } else {
+                        theFrame = new Frame(dumpFileNumber, getCurrentTrailPos(),
+                                theURL, webBrowser.captureScreen(), theFingerprint);
+                    }
+                }
+
+                theFrame = addTargetBounds(theFrame);
+
+                if (theLiveFrames != null && !theFrame.isLinked()) {
+                    theLiveFrames.offer(theFrame.getImageBytes());
+                }
+
+                if (screenshotWriter.submit(theFrame)) {
+                    ++dumpFileNumber;
+                }
+            } catch (WebDriverException ex) {
                 theLogger.log(Level.WARNING, null, ex);
             } 
+        } else if (theLiveFrames != null) {
+            try {
+                theLiveFrames.offer(webBrowser.captureScreen());
+            } catch (WebDriverException ex) {
+                theLogger.log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param newLiveFrames - where captured frames are offered to live
+     * viewers (null for none). If set, frames are captured even when they are
+     * not being dumped.
+     */
+    public void setLiveFrames(FrameFanout newLiveFrames) {
+        theLiveFrames = newLiveFrames;
+    }
+
+    /**
+     *
+     * @param theFrame - frame of the current page.
+     * @return - the frame with where the trail item's target is (if it is to
+     * be cropped and it can be found).
+     */
+    private Frame addTargetBounds(Frame theFrame) {
+        if (thePostProcessor == null || !thePostProcessor.shouldCropTarget()
+                || theFrame.isLinked() || theTrail.isEmpty()) {
+            return theFrame;
+        }
+
+        TrailItem theItem = theTrail.get(Math.max(0, getCurrentTrailPos()));
+
+        if (theItem.getTargetType().isEmpty()) {
+            return theFrame;
+        }
+
+        Rectangle theBounds = webBrowser.getElementBounds(getTargetXPath(theItem));
+
+        return (theBounds == null) ? theFrame : theFrame.withTargetBounds(theBounds);
+    }
+
+    /**
+     * Fingerprints the current page - a hash of its text and the server's
+     * validators (asked for with a conditional HEAD request so that an
+     * unchanged page costs the server next to nothing).
+     * @param theURL - the current page.
+     * @param thePrevious - the page's last fingerprint (or null).
+     * @return - the fingerprint (without a capture).
+     */
+    private PageFingerprint takeFingerprint(String theURL,
+            PageFingerprint thePrevious) {
+        String theTextHash = PageFingerprint.hashText(webBrowser.getPageText());
+        String theETag = "";
+        String theLastModified = "";
+
+        try {
+            String ifNoneMatch = (thePrevious == null) ? "" : thePrevious.getETag();
+            String ifModifiedSince = (thePrevious == null) ? "" : thePrevious.getLastModified();
+            TrailPrefetcher theCurrentPrefetcher = thePrefetcher;
+            // made while the walker was on an earlier item (if it was)
+            HeadCheck theCheck = (theCurrentPrefetcher == null) ? null
+                    : theCurrentPrefetcher.getCheck(getCurrentTrailPos(), theURL, ifNoneMatch, ifModifiedSince);
+
+            if (theCheck == null) {
+                theCheck = HeadCheck.fetch(new URL(theURL), ifNoneMatch, ifModifiedSince, HEAD_TIMEOUT);
+            }
+
+            if (theCheck.isNotModified() && thePrevious != null) {
+                theETag = thePrevious.getETag();
+                theLastModified = thePrevious.getLastModified();
+            } else {
+                theETag = theCheck.getETag();
+                theLastModified = theCheck.getLastModified();
+            }
+        } catch (IOException ex) {
+            // no validators - the text hash alone decides
+            theLogger.log(Level.INFO, "HEAD request failed for {0}", theURL);
+
+            if (thePrevious != null) {
+                theETag = thePrevious.getETag();
+                theLastModified = thePrevious.getLastModified();
+            }
         }
+
+        return new PageFingerprint(theTextHash, theETag, theLastModified);
     }
 
     @Override
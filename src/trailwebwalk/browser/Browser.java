@@ -1,6 +1,6 @@
 package trailwebwalk.browser;
 
-import java.io.IOException;
+import java.awt.Rectangle;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -34,6 +34,7 @@ public class Browser {
     private List<Page> pageList = new ArrayList<Page>();
     private final Logger theLogger;
     private final int HISTORY_LIMIT = 15;
+    private int pagesLoaded = 0;
 
     /**
      *
@@ -42,7 +43,18 @@ public class Browser {
      */
     public Browser(String profileId,
             Logger newLogger) {
-        webDriver = new WebDriverWrapper(profileId);
+        webDriver = new BrowserLauncher(profileId, newLogger).launch();
+        theLogger = newLogger;
+    }
+
+    /**
+     *
+     * @param theDriver - valid (e.g. pooled) web driver
+     * @param newLogger
+     */
+    Browser(WebDriverWrapper theDriver,
+            Logger newLogger) {
+        webDriver = theDriver;
         theLogger = newLogger;
     }
 
@@ -73,6 +85,66 @@ public class Browser {
         return true;
     }
 
+    /**
+     *
+     * @return - whether the browser processes are running. Does not go through
+     * the web driver so can be used as a heartbeat while the driver is busy.
+     * @precon - as per invariant
+     * @postcon - as per invariant/return value
+     */
+    public boolean isProcessAlive() {
+        WebDriverWrapper theDriver = webDriver;
+
+        if (theDriver == null) {
+            return false;
+        }
+
+        return theDriver.isProcessAlive();
+    }
+
+    /**
+     *
+     * @return - whether the browser process can be checked by isProcessAlive
+     * (otherwise isAlive must be used).
+     */
+    public boolean hasKnownProcess() {
+        WebDriverWrapper theDriver = webDriver;
+
+        return theDriver != null && theDriver.hasKnownProcess();
+    }
+
+    /**
+     *
+     * @return - the URLs of the pages visited (oldest first).
+     * @precon - as per invariant
+     * @postcon - as per invariant/return value
+     */
+    public List<String> getVisitedURLs() {
+        List<String> theResult = new ArrayList<String>();
+
+        for (Page thePage : pageList) {
+            theResult.add(thePage.getURL());
+        }
+
+        return theResult;
+    }
+
+    /**
+     * Sets the visited pages (e.g. those from a browser that has died) without
+     * visiting them.
+     * @param theURLs - oldest first.
+     * @precon - as per invariant
+     * @postcon - the visited list is as per the param (up to the history limit).
+     */
+    public void restoreHistory(List<String> theURLs) {
+        pageList.clear();
+        int theStart = Math.max(0, theURLs.size() - HISTORY_LIMIT);
+
+        for (String theURL : theURLs.subList(theStart, theURLs.size())) {
+            pageList.add(new Page(webDriver, theLogger, theURL));
+        }
+    }
+
     /**
      *
      * @param linkText - the clickable text (e.g. 'random article' or 'stumble!').
@@ -192,6 +264,19 @@ public class Browser {
         webDriver = null;
     }
 
+    /**
+     * Hands over the web driver (e.g. back to the pool) without quitting it.
+     * @return - the web driver (null if already quit or detached)
+     * @precon - as per invariant spec
+     * @postcon - this browser no longer has a web driver.
+     */
+    WebDriverWrapper detach() {
+        WebDriverWrapper theDriver = webDriver;
+        webDriver = null;
+        pageList.clear();
+        return theDriver;
+    }
+
     /**
      *
      * @param theLink a valid (non-null and contained in the current page)
@@ -228,6 +313,30 @@ public class Browser {
     public void addNewPage() {
         Page theNewPage = new Page(webDriver, theLogger);
         pageList.add(theNewPage);
+        ++pagesLoaded;
+    }
+
+    /**
+     *
+     * @return - the number of pages loaded by this browser.
+     */
+    public int getPagesLoaded() {
+        return pagesLoaded;
+    }
+
+    /**
+     *
+     * @return - the resident memory of the browser processes in kB (0 if not
+     * known).
+     */
+    public long getResidentKB() {
+        WebDriverWrapper theDriver = webDriver;
+
+        if (theDriver == null) {
+            return 0;
+        }
+
+        return theDriver.getResidentKB();
     }
 
     /**
@@ -393,7 +502,74 @@ public class Browser {
         return theResult;
     }
      
-    public void dumpScreen(String dumpFilePath) throws IOException {
-        webDriver.screenDump(dumpFilePath);
+    /**
+     *
+     * @param xpathForTarget
+     * @return - where the element is in a screenshot of the page (null if it
+     * is not there).
+     * @precon - as per invariant.
+     * @postcon -as per invariant/return spec.
+     */
+    public Rectangle getElementBounds(String xpathForTarget) {
+        List<?> theBounds = webDriver.getElementBounds(xpathForTarget);
+
+        if (theBounds == null || theBounds.size() != 4) {
+            return null;
+        }
+
+        int[] theValues = new int[4];
+
+        for (int i = 0; i < 4; ++i) {
+            Object theValue = theBounds.get(i);
+
+            if (!(theValue instanceof Number)) {
+                return null;
+            }
+
+            theValues[i] = ((Number) theValue).intValue();
+        }
+
+        return new Rectangle(theValues[0], theValues[1], theValues[2], theValues[3]);
+    }
+
+    /**
+     *
+     * Always 0 with the firefox and HtmlUnit of this Selenium (see
+     * WebDriverWrapper.getResponseStatus).
+     * @return - the HTTP status the current page was served with (0 if the
+     * browser does not say).
+     * @precon - as per invariant.
+     * @postcon -as per invariant/return spec.
+     */
+    public int getResponseStatus() {
+        return webDriver.getResponseStatus();
+    }
+
+    /**
+     *
+     * @return - the visible text of the current page.
+     * @precon - as per invariant.
+     * @postcon -as per invariant/return spec.
+     */
+    public String getPageText() {
+        return webDriver.getPageText();
+    }
+
+    /**
+     *
+     * @return - whether screenshots can be taken (not with htmlunit).
+     */
+    public boolean canCaptureScreen() {
+        return webDriver.canCaptureScreen();
+    }
+
+    /**
+     *
+     * @return - screenshot of the current page as PNG bytes.
+     * @precon - as per invariant.
+     * @postcon -as per invariant/return spec.
+     */
+    public byte[] captureScreen() {
+        return webDriver.captureScreen();
     }
 }
@@ -0,0 +1,136 @@
+package trailwebwalk.browser;
+
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.firefox.internal.ProfilesIni;
+
+/**
+ *
+ * @author al
+ * Holds the settings used to launch the walker's browsers (the driver backend,
+ * the firefox profile, where it is prepared and the performance preset applied
+ * to it).
+ * @invariant - the Logger is a valid logger.
+ */
+public class BrowserLauncher {
+
+    private final String profileId;
+    private final ProfileCache profileCache;
+    private final PerformancePreset thePreset;
+    private final Logger theLogger;
+    private final DriverBackend theBackend;
+
+    /**
+     * Launches with the profile as found by firefox (no cache).
+     * @param profileId - the firefox profile identifier (may be null)
+     * @param newLogger - valid logger
+     */
+    public BrowserLauncher(String profileId,
+            Logger newLogger) {
+        this(profileId, null, null, DriverBackend.firefox, newLogger);
+    }
+
+    /**
+     * Launches firefox.
+     * @param profileId - the firefox profile identifier (may be null)
+     * @param profileCache - where the profile is prepared (null for none)
+     * @param thePreset - preferences applied at launch (null for none)
+     * @param newLogger - valid logger
+     */
+    public BrowserLauncher(String profileId,
+            ProfileCache profileCache,
+            PerformancePreset thePreset,
+            Logger newLogger) {
+        this(profileId, profileCache, thePreset, DriverBackend.firefox, newLogger);
+    }
+
+    /**
+     *
+     * @param profileId - the firefox profile identifier (may be null)
+     * @param profileCache - where the profile is prepared (null for none)
+     * @param thePreset - preferences applied at launch (null for none)
+     * @param theBackend - the driver to launch
+     * @param newLogger - valid logger
+     */
+    public BrowserLauncher(String profileId,
+            ProfileCache profileCache,
+            PerformancePreset thePreset,
+            DriverBackend theBackend,
+            Logger newLogger) {
+        this.theBackend = theBackend;
+        this.profileId = profileId;
+        this.profileCache = profileCache;
+        this.thePreset = thePreset;
+        theLogger = newLogger;
+    }
+
+    /**
+     *
+     * @return - a newly launched browser.
+     */
+    WebDriverWrapper launch() {
+        return new WebDriverWrapper(this);
+    }
+
+    /**
+     *
+     * @return - the cached profile to launch with (the driver makes its own
+     * copy) or null if the profile is not cached (or not used).
+     */
+    File prepareProfileDir() {
+        if (profileCache == null || profileId == null || !theBackend.usesProfile()) {
+            return null;
+        }
+
+        return profileCache.prepareTemplate();
+    }
+
+    /**
+     *
+     * @param theProfileDir - from prepareProfileDir (may be null)
+     * @return - the profile to launch with (or null for the default profile).
+     */
+    FirefoxProfile getProfile(File theProfileDir) {
+        FirefoxProfile theProfile = null;
+
+        if (!theBackend.usesProfile()) {
+            return null;
+        }
+
+        if (theProfileDir != null) {
+            theProfile = new FirefoxProfile(theProfileDir);
+        } else if (profileId != null) {
+            ProfilesIni allProfiles = new ProfilesIni();
+            theProfile = allProfiles.getProfile(profileId);
+        }
+
+        if (thePreset != null && thePreset.hasPreferences()) {
+            if (theProfile == null) {
+                theProfile = new FirefoxProfile();
+            }
+
+            thePreset.applyTo(theProfile);
+            theLogger.log(Level.INFO, "Applied {0}", thePreset);
+        }
+
+        return theProfile;
+    }
+
+    /**
+     *
+     * @return - the preset applied at launch (or null).
+     */
+    PerformancePreset getPreset() {
+        return thePreset;
+    }
+
+    /**
+     *
+     * @return - the driver launched.
+     */
+    public DriverBackend getBackend() {
+        return theBackend;
+    }
+}
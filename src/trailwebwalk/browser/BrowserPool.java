@@ -0,0 +1,242 @@
+package trailwebwalk.browser;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ *
+ * @author al
+ * Pool of pre-launched web drivers (firefox windows) so that starting and
+ * stopping a walk does not have to wait for a cold firefox launch.
+ * The pool size is the number of drivers managed by the pool, both those in
+ * use and those ready to be used. Drivers are launched in the background to
+ * keep the pool at that size. When a browser is released it is reset
+ * (pointed to about:blank and, depending on the cookie policy, its cookies
+ * are cleared) and kept for the next acquire rather than being quit.
+ * A pool size of 0 gives the old behaviour (launch on acquire, quit on
+ * release).
+ * @invariant - the Logger is a valid logger.
+ * @invariant - idle drivers are valid and pointing to a blank page.
+ */
+public class BrowserPool {
+
+    private static final int LAUNCH_WAIT = 60; // seconds to wait for a launch in progress
+    private final BrowserLauncher theLauncher;
+    private final int poolSize;
+    private final boolean shouldClearCookies;
+    private final Logger theLogger;
+    private final BlockingQueue<WebDriverWrapper> idleDrivers = new LinkedBlockingQueue<WebDriverWrapper>();
+    private final ExecutorService launcher;
+    private int pendingLaunches = 0;
+    private int inUse = 0;
+    private volatile boolean isShutdown = false;
+
+    /**
+     *
+     * @param theLauncher - how the browsers are launched
+     * @param poolSize - number of drivers managed by the pool (0 = none kept)
+     * @param shouldClearCookies - whether to clear cookies on release
+     * @param newLogger - valid logger
+     */
+    public BrowserPool(BrowserLauncher theLauncher,
+            int poolSize,
+            boolean shouldClearCookies,
+            Logger newLogger) {
+        this.theLauncher = theLauncher;
+        this.poolSize = poolSize;
+        this.shouldClearCookies = shouldClearCookies;
+        theLogger = newLogger;
+        launcher = Executors.newSingleThreadExecutor();
+        refill();
+    }
+
+    /**
+     *
+     * @return - a browser from the pool (launched if none is ready).
+     * @precon - as per invariant
+     * @postcon - as per invariant/return value
+     * @throws WebDriverException - if a new browser has to be launched and that
+     * fails.
+     */
+    public Browser acquire() throws WebDriverException {
+        WebDriverWrapper theDriver = takeIdleDriver();
+
+        if (theDriver == null && hasPendingLaunch()) {
+            try {
+                theDriver = idleDrivers.poll(LAUNCH_WAIT, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (theDriver != null && !theDriver.isProcessAlive()) {
+                quitQuietly(theDriver);
+                theDriver = takeIdleDriver();
+            }
+        }
+
+        if (theDriver == null) {
+            theLogger.log(Level.INFO, "No pooled browser ready - launching");
+            theDriver = theLauncher.launch();
+        }
+
+        synchronized (this) {
+            ++inUse;
+        }
+
+        refill();
+
+        return new Browser(theDriver, theLogger);
+    }
+
+    /**
+     * Returns the browser's driver to the pool (or quits it if the pool is
+     * full or the driver is no longer valid).
+     * @param theBrowser - browser got from acquire (not used after this call).
+     * @precon - as per invariant/param spec
+     * @postcon - as per invariant
+     */
+    public void release(Browser theBrowser) {
+        WebDriverWrapper theDriver = theBrowser.detach();
+
+        if (theDriver == null) {
+            return;
+        }
+
+        boolean isReset = false;
+
+        // reset without holding the pool (it waits for the browser) - the
+        // driver is still counted as in use meanwhile
+        if (!isShutdown
+                && poolSize > 0
+                && theDriver.isProcessAlive()) {
+            try {
+                theDriver.reset(shouldClearCookies);
+                isReset = true;
+            } catch (WebDriverException ex) {
+                theLogger.log(Level.INFO, "Failed to reset browser for reuse", ex);
+            }
+        }
+
+        synchronized (this) {
+            --inUse;
+
+            if (isReset && !isShutdown
+                    && managedCount() < poolSize) {
+                idleDrivers.offer(theDriver);
+                return;
+            }
+        }
+
+        quitQuietly(theDriver);
+        refill();
+    }
+
+    /**
+     * Quits the browser rather than returning it to the pool (e.g. it has died
+     * or has used too much memory).
+     * @param theBrowser - browser got from acquire (not used after this call).
+     * @precon - as per invariant/param spec
+     * @postcon - as per invariant
+     */
+    public void discard(Browser theBrowser) {
+        WebDriverWrapper theDriver = theBrowser.detach();
+
+        if (theDriver == null) {
+            return;
+        }
+
+        synchronized (this) {
+            --inUse;
+        }
+
+        quitQuietly(theDriver);
+        refill();
+    }
+
+    /**
+     * Quits all the pooled browsers.
+     * @postcon - no browsers are held by the pool.
+     */
+    public void shutdown() {
+        isShutdown = true;
+        launcher.shutdownNow();
+        WebDriverWrapper theDriver = null;
+
+        while ((theDriver = idleDrivers.poll()) != null) {
+            quitQuietly(theDriver);
+        }
+    }
+
+    private WebDriverWrapper takeIdleDriver() {
+        WebDriverWrapper theDriver = idleDrivers.poll();
+
+        while (theDriver != null && !theDriver.isProcessAlive()) {
+            quitQuietly(theDriver);
+            theDriver = idleDrivers.poll();
+        }
+
+        return theDriver;
+    }
+
+    private synchronized boolean hasPendingLaunch() {
+        return pendingLaunches > 0;
+    }
+
+    private synchronized int managedCount() {
+        return idleDrivers.size() + pendingLaunches + inUse;
+    }
+
+    /**
+     * Starts background launches to bring the pool up to size.
+     */
+    private synchronized void refill() {
+        while (!isShutdown
+                && managedCount() < poolSize) {
+            ++pendingLaunches;
+            launcher.submit(new Runnable() {
+
+                public void run() {
+                    launch();
+                }
+            });
+        }
+    }
+
+    private void launch() {
+        WebDriverWrapper theDriver = null;
+
+        try {
+            theDriver = theLauncher.launch();
+        } catch (WebDriverException ex) {
+            theLogger.log(Level.WARNING, "Failed to launch pooled browser", ex);
+        }
+
+        synchronized (this) {
+            --pendingLaunches;
+
+            if (theDriver != null && !isShutdown
+                    && managedCount() < poolSize) {
+                idleDrivers.offer(theDriver);
+                theDriver = null;
+            }
+        }
+
+        if (theDriver != null) {
+            quitQuietly(theDriver);
+        }
+    }
+
+    private void quitQuietly(WebDriverWrapper theDriver) {
+        try {
+            theDriver.quit();
+        } catch (WebDriverException ex) {
+            theLogger.log(Level.INFO, "WebDriverException caught on trying to close down - ignored");
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package trailwebwalk.browser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *
+ * @author al
+ * Looks at the browser processes that have been started by this JVM through
+ * the /proc file system (so only works on linux).
+ * This is a separate channel from the WebDriver connection so it can be used
+ * while the WebDriver is busy (e.g. loading a page) without waiting on it.
+ * On systems without /proc all the queries return empty/unknown results.
+ */
+public class BrowserProcess {
+
+    private static final File PROC_DIR = new File("/proc");
+
+    /**
+     *
+     * @return - whether process information is available on this system.
+     */
+    public static boolean isSupported() {
+        return new File(PROC_DIR, "self/stat").exists();
+    }
+
+    /**
+     *
+     * @return - the process ids of all the (live) descendants of this JVM.
+     * @postcon - empty set if the info is not available.
+     */
+    public static Set<Integer> descendantPids() {
+        return descendantPids(jvmPid());
+    }
+
+    /**
+     *
+     * @param rootPid
+     * @return - the process ids of all the (live) descendants of the process.
+     * @postcon - empty set if the info is not available.
+     */
+    public static Set<Integer> descendantPids(int rootPid) {
+        Set<Integer> theResult = new HashSet<Integer>();
+
+        if (rootPid < 0 || !isSupported()) {
+            return theResult;
+        }
+
+        Map<Integer, List<Integer>> theChildren = new HashMap<Integer, List<Integer>>();
+        String[] theEntries = PROC_DIR.list();
+
+        if (theEntries == null) {
+            return theResult;
+        }
+
+        for (String theEntry : theEntries) {
+            int thePid = parsePid(theEntry);
+
+            if (thePid > 0) {
+                int theParent = parentPid(thePid);
+
+                if (theParent > 0) {
+                    List<Integer> theList = theChildren.get(theParent);
+
+                    if (theList == null) {
+                        theList = new ArrayList<Integer>();
+                        theChildren.put(theParent, theList);
+                    }
+
+                    theList.add(thePid);
+                }
+            }
+        }
+
+        List<Integer> toVisit = new ArrayList<Integer>();
+        toVisit.add(rootPid);
+
+        while (!toVisit.isEmpty()) {
+            Integer theParent = toVisit.remove(toVisit.size() - 1);
+            List<Integer> theList = theChildren.get(theParent);
+
+            if (theList != null) {
+                for (Integer theChild : theList) {
+                    if (theResult.add(theChild)) {
+                        toVisit.add(theChild);
+                    }
+                }
+            }
+        }
+
+        return theResult;
+    }
+
+    /**
+     *
+     * @param thePid
+     * @return - whether the process exists and is not a zombie.
+     */
+    public static boolean isAlive(int thePid) {
+        String theState = statField(thePid, 0);
+
+        if (theState == null) {
+            return false;
+        }
+
+        return !(theState.equals("Z") || theState.equals("X"));
+    }
+
+    /**
+     *
+     * @param thePid
+     * @return - the resident set size of the process in kB (0 if it is not
+     * known).
+     */
+    public static long residentKB(int thePid) {
+        return readKBField(new File(PROC_DIR, thePid + "/status"), "VmRSS:");
+    }
+
+    /**
+     *
+     * @return - the memory available for new processes in kB (0 if it is not
+     * known).
+     */
+    public static long availableMemoryKB() {
+        File theMemInfo = new File(PROC_DIR, "meminfo");
+        long theAvailable = readKBField(theMemInfo, "MemAvailable:");
+
+        // older kernels don't give MemAvailable
+        return (theAvailable > 0) ? theAvailable : readKBField(theMemInfo, "MemFree:");
+    }
+
+    /**
+     *
+     * @param theFile - /proc file of "Name: value kB" lines.
+     * @param theName - the name (with the colon).
+     * @return - the value (0 if not found).
+     */
+    private static long readKBField(File theFile, String theName) {
+        BufferedReader theReader = null;
+
+        try {
+            theReader = new BufferedReader(new FileReader(theFile));
+            String theLine = null;
+
+            while ((theLine = theReader.readLine()) != null) {
+                if (theLine.startsWith(theName)) {
+                    String[] theFields = theLine.substring(theName.length()).trim().split("\\s+");
+                    return Long.parseLong(theFields[0]);
+                }
+            }
+        } catch (IOException e) {
+            // process has gone (or no /proc)
+        } catch (NumberFormatException e) {
+            // ...
+        } finally {
+            if (null != theReader) {
+                try {
+                    theReader.close();
+                } catch (IOException e) {
+                    /* .... */
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     *
+     * @return - the process id of this JVM or -1 if it can't be worked out.
+     */
+    static int jvmPid() {
+        String theName = ManagementFactory.getRuntimeMXBean().getName();
+        int atIndex = theName.indexOf('@');
+
+        if (atIndex > 0) {
+            return parsePid(theName.substring(0, atIndex));
+        }
+
+        return -1;
+    }
+
+    private static int parentPid(int thePid) {
+        String theParent = statField(thePid, 1);
+
+        if (theParent == null) {
+            return -1;
+        }
+
+        return parsePid(theParent);
+    }
+
+    /**
+     * Gets a field from /proc/pid/stat counting from the one after the
+     * command name (which is in brackets and may contain spaces).
+     * @param thePid
+     * @param theIndex - 0 is state, 1 is parent pid etc.
+     * @return - the field or null if the process does not exist.
+     */
+    private static String statField(int thePid, int theIndex) {
+        String theLine = readFirstLine(new File(PROC_DIR, thePid + "/stat"));
+
+        if (theLine == null) {
+            return null;
+        }
+
+        int theEndOfName = theLine.lastIndexOf(')');
+
+        if (theEndOfName < 0) {
+            return null;
+        }
+
+        String[] theFields = theLine.substring(theEndOfName + 1).trim().split(" ");
+
+        if (theIndex < theFields.length) {
+            return theFields[theIndex];
+        }
+
+        return null;
+    }
+
+    static String readFirstLine(File theFile) {
+        BufferedReader theReader = null;
+
+        try {
+            theReader = new BufferedReader(new FileReader(theFile));
+            return theReader.readLine();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (null != theReader) {
+                try {
+                    theReader.close();
+                } catch (IOException e) {
+                    /* .... */
+                }
+            }
+        }
+    }
+
+    private static int parsePid(String theString) {
+        try {
+            return Integer.parseInt(theString);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
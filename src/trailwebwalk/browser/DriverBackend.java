@@ -0,0 +1,54 @@
+package trailwebwalk.browser;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.firefox.FirefoxDriver;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+/**
+ *
+ * @author al
+ * The WebDriver implementation the walker's browsers are launched with
+ * (DriverBackend property).
+ * firefox - a real firefox window (profiles, presets and screenshots).
+ * htmlunit - headless in the JVM with javascript on; many times faster and
+ * no display needed but no screenshots (for validation, finding targets and
+ * warm-up walks).
+ */
+public enum DriverBackend {
+
+    firefox {
+
+        WebDriver createDriver(FirefoxProfile theProfile) {
+            return (theProfile == null) ? new FirefoxDriver() : new FirefoxDriver(theProfile);
+        }
+
+        boolean usesProfile() {
+            return true;
+        }
+    },
+    htmlunit {
+
+        WebDriver createDriver(FirefoxProfile theProfile) {
+            return new HtmlUnitDriver(true);
+        }
+
+        boolean usesProfile() {
+            return false;
+        }
+    };
+
+    /**
+     *
+     * @param theProfile - the firefox profile (null for the default, ignored
+     * if the backend does not use profiles).
+     * @return - a new driver.
+     */
+    abstract WebDriver createDriver(FirefoxProfile theProfile);
+
+    /**
+     *
+     * @return - whether the backend is launched with a firefox profile.
+     */
+    abstract boolean usesProfile();
+}
@@ -36,6 +36,19 @@ public class Page {
         theURL = webDriver.getCurrentPage();
     }
 
+    /**
+     * @param newDriver - valid WebDriver
+     * @param theKnownURL - the URL of a page already visited (so the browser
+     * need not be pointing to it).
+     */
+    Page(WebDriverWrapper newDriver,
+         Logger newLogger,
+         String theKnownURL) {
+        theLogger = newLogger;
+        webDriver = newDriver;
+        theURL = theKnownURL;
+    }
+
     /**
      * 
      * @return a valid not editing hyperlink from the current page
@@ -0,0 +1,177 @@
+package trailwebwalk.browser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import org.openqa.selenium.firefox.FirefoxProfile;
+
+/**
+ *
+ * @author al
+ * Firefox preferences applied to the walker's browser at launch so that page
+ * loads and memory use are the same whatever the profile has been set to.
+ * The preset is named by the BrowserPreset property:
+ * none - the profile is used as it is.
+ * lean - limited caches, no plugins, updates or telemetry, infrequent session
+ * store writes and no animations.
+ * imageless - as lean but images are not loaded (for walks without
+ * screenshots).
+ * Any of the settings can be overridden by the Perf.* properties.
+ * @invariant - the preferences are valid firefox preferences.
+ */
+public class PerformancePreset {
+
+    private final String theName;
+    private final Map<String, Object> thePreferences = new LinkedHashMap<String, Object>();
+    private int viewportWidth = 0;
+    private int viewportHeight = 0;
+
+    /**
+     *
+     * @param properties - BrowserPreset and Perf.* are used.
+     */
+    public PerformancePreset(Properties properties) {
+        theName = properties.getProperty("BrowserPreset", "none").trim().toLowerCase();
+        boolean isLean = theName.equals("lean") || theName.equals("imageless");
+
+        int diskCacheKB = intProperty(properties, "Perf.DiskCacheKB", isLean ? 51200 : -1);
+        int memoryCacheKB = intProperty(properties, "Perf.MemoryCacheKB", isLean ? 65536 : -1);
+        int sessionStoreMillis = intProperty(properties, "Perf.SessionStoreIntervalMs", isLean ? 600000 : -1);
+
+        if (diskCacheKB >= 0) {
+            thePreferences.put("browser.cache.disk.enable", diskCacheKB > 0);
+            thePreferences.put("browser.cache.disk.capacity", diskCacheKB);
+            thePreferences.put("browser.cache.disk.smart_size.enabled", false);
+        }
+
+        if (memoryCacheKB >= 0) {
+            thePreferences.put("browser.cache.memory.enable", memoryCacheKB > 0);
+            thePreferences.put("browser.cache.memory.capacity", memoryCacheKB);
+        }
+
+        if (booleanProperty(properties, "Perf.DisablePlugins", isLean)) {
+            thePreferences.put("plugin.disable", true);
+            thePreferences.put("plugin.default.state", 0);
+        }
+
+        if (booleanProperty(properties, "Perf.DisableUpdates", isLean)) {
+            thePreferences.put("app.update.enabled", false);
+            thePreferences.put("app.update.auto", false);
+            thePreferences.put("extensions.update.enabled", false);
+            thePreferences.put("browser.search.update", false);
+        }
+
+        if (booleanProperty(properties, "Perf.DisableTelemetry", isLean)) {
+            thePreferences.put("toolkit.telemetry.enabled", false);
+            thePreferences.put("datareporting.healthreport.uploadEnabled", false);
+            thePreferences.put("datareporting.policy.dataSubmissionEnabled", false);
+        }
+
+        if (sessionStoreMillis >= 0) {
+            thePreferences.put("browser.sessionstore.interval", sessionStoreMillis);
+        }
+
+        if (booleanProperty(properties, "Perf.ReduceAnimations", isLean)) {
+            thePreferences.put("browser.tabs.animate", false);
+            thePreferences.put("toolkit.cosmeticAnimations.enabled", false);
+            thePreferences.put("ui.prefersReducedMotion", 1);
+        }
+
+        if (booleanProperty(properties, "Perf.BlockImages", theName.equals("imageless"))) {
+            thePreferences.put("permissions.default.image", 2);
+        }
+
+        String theViewport = properties.getProperty("Perf.Viewport", "").trim();
+        int theSeparator = theViewport.indexOf('x');
+
+        if (theSeparator > 0) {
+            try {
+                viewportWidth = Integer.parseInt(theViewport.substring(0, theSeparator).trim());
+                viewportHeight = Integer.parseInt(theViewport.substring(theSeparator + 1).trim());
+            } catch (NumberFormatException ex) {
+                viewportWidth = 0;
+                viewportHeight = 0;
+            }
+        }
+    }
+
+    /**
+     *
+     * @return - the name of the preset (for the metrics)
+     */
+    public String getName() {
+        return theName;
+    }
+
+    /**
+     *
+     * @return - whether there is anything to apply to the profile.
+     */
+    boolean hasPreferences() {
+        return !thePreferences.isEmpty();
+    }
+
+    /**
+     *
+     * @param theProfile - profile to be launched with.
+     * @postcon - the preset's preferences are set in the profile.
+     */
+    void applyTo(FirefoxProfile theProfile) {
+        for (Map.Entry<String, Object> thePref : thePreferences.entrySet()) {
+            Object theValue = thePref.getValue();
+
+            if (theValue instanceof Boolean) {
+                theProfile.setPreference(thePref.getKey(), ((Boolean) theValue).booleanValue());
+            } else if (theValue instanceof Integer) {
+                theProfile.setPreference(thePref.getKey(), ((Integer) theValue).intValue());
+            } else {
+                theProfile.setPreference(thePref.getKey(), theValue.toString());
+            }
+        }
+    }
+
+    /**
+     *
+     * @return - whether the size of the page area is fixed.
+     */
+    boolean hasViewport() {
+        return viewportWidth > 0 && viewportHeight > 0;
+    }
+
+    int getViewportWidth() {
+        return viewportWidth;
+    }
+
+    int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    @Override
+    public String toString() {
+        return "PerformancePreset{" + "theName=" + theName + ", thePreferences=" + thePreferences + '}';
+    }
+
+    private static int intProperty(Properties properties, String theKey, int theDefault) {
+        String theValue = properties.getProperty(theKey);
+
+        if (theValue == null) {
+            return theDefault;
+        }
+
+        try {
+            return Integer.parseInt(theValue.trim());
+        } catch (NumberFormatException ex) {
+            return theDefault;
+        }
+    }
+
+    private static boolean booleanProperty(Properties properties, String theKey, boolean theDefault) {
+        String theValue = properties.getProperty(theKey);
+
+        if (theValue == null) {
+            return theDefault;
+        }
+
+        return theValue.trim().equalsIgnoreCase("true");
+    }
+}
@@ -0,0 +1,246 @@
+package trailwebwalk.browser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.apache.commons.io.FileUtils;
+
+/**
+ *
+ * @author al
+ * Local cache of a prepared copy (template) of a firefox profile.
+ * The walker's profile has a large cache which otherwise is copied every time
+ * a browser is launched. The template is built once without the cache
+ * directories and browsers are launched with it (the firefox driver copies the
+ * profile it is given to a directory of its own, so firefox never runs in the
+ * template).
+ * The template is rebuilt when the checksum of the source profile (names,
+ * sizes and modification times of its files) changes.
+ * The cache directory belongs to one ProfileCache (one walk).
+ * @invariant - the Logger is a valid logger.
+ */
+public class ProfileCache {
+
+    // directories and files not wanted in the template (caches and locks)
+    private static final Set<String> SKIPPED_NAMES = new HashSet<String>(Arrays.asList(
+            "Cache", "cache2", "startupCache", "OfflineCache", "thumbnails",
+            "safebrowsing", "lock", ".parentlock", "parent.lock",
+            "sessionstore.js", "sessionstore.bak"));
+    private static final String TEMPLATE_DIR = "template";
+    private static final String CHECKSUM_FILE = "template.sum";
+    private final String profileId;
+    private final File profileCacheDir;
+    private final Logger theLogger;
+    private String templateChecksum = null;
+
+    /**
+     *
+     * @param profileId - the name of the firefox profile (as in profiles.ini)
+     * @param cacheDir - where the prepared profiles are kept
+     * @param newLogger - valid logger
+     */
+    public ProfileCache(String profileId,
+            File cacheDir,
+            Logger newLogger) {
+        this.profileId = profileId;
+        this.profileCacheDir = new File(cacheDir, profileId);
+        theLogger = newLogger;
+    }
+
+    /**
+     *
+     * @return - the template for a browser to be launched with (not to be
+     * changed) or null if the profile could not be found or prepared.
+     * @precon - as per invariant
+     * @postcon - the template is up to date with the source profile.
+     */
+    public synchronized File prepareTemplate() {
+        File theSourceDir = findProfileDir(profileId);
+
+        if (theSourceDir == null) {
+            theLogger.log(Level.WARNING, "Firefox profile {0} not found", profileId);
+            return null;
+        }
+
+        File theTemplateDir = new File(profileCacheDir, TEMPLATE_DIR);
+
+        try {
+            String theChecksum = checksum(theSourceDir);
+
+            if (templateChecksum == null) {
+                templateChecksum = readChecksum();
+            }
+
+            if (!theTemplateDir.isDirectory()
+                    || !theChecksum.equals(templateChecksum)) {
+                buildTemplate(theSourceDir, theTemplateDir, theChecksum);
+            }
+
+            return theTemplateDir;
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Failed to prepare cached profile", ex);
+        }
+
+        return null;
+    }
+
+    private void buildTemplate(File theSourceDir,
+            File theTemplateDir,
+            String theChecksum) throws IOException {
+        theLogger.log(Level.INFO, "Building profile template from {0}", theSourceDir);
+
+        if (theTemplateDir.exists()) {
+            FileUtils.deleteDirectory(theTemplateDir);
+        }
+
+        FileUtils.copyDirectory(theSourceDir, theTemplateDir, new FileFilter() {
+
+            public boolean accept(File theFile) {
+                return !SKIPPED_NAMES.contains(theFile.getName());
+            }
+        });
+
+        FileUtils.writeStringToFile(new File(profileCacheDir, CHECKSUM_FILE), theChecksum);
+        templateChecksum = theChecksum;
+    }
+
+    private String readChecksum() {
+        File theFile = new File(profileCacheDir, CHECKSUM_FILE);
+
+        if (theFile.exists()) {
+            try {
+                return FileUtils.readFileToString(theFile).trim();
+            } catch (IOException ex) {
+                // rebuild
+            }
+        }
+
+        return "";
+    }
+
+    /**
+     *
+     * @param theDir
+     * @return - checksum of the names, sizes and modification times of the
+     * files in the directory (not including the skipped ones).
+     */
+    static String checksum(File theDir) {
+        CRC32 theCRC = new CRC32();
+        addToChecksum(theCRC, theDir, "");
+        return Long.toHexString(theCRC.getValue());
+    }
+
+    private static void addToChecksum(CRC32 theCRC, File theDir, String thePath) {
+        File[] theFiles = theDir.listFiles();
+
+        if (theFiles == null) {
+            return;
+        }
+
+        Arrays.sort(theFiles);
+
+        for (File theFile : theFiles) {
+            if (!SKIPPED_NAMES.contains(theFile.getName())) {
+                String theName = thePath + "/" + theFile.getName();
+
+                if (theFile.isDirectory()) {
+                    addToChecksum(theCRC, theFile, theName);
+                } else {
+                    String theEntry = theName + ":" + theFile.length() + ":" + theFile.lastModified();
+                    theCRC.update(theEntry.getBytes());
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param theProfileName
+     * @return - the directory of the named profile from firefox's profiles.ini
+     * or null if it is not found.
+     */
+    static File findProfileDir(String theProfileName) {
+        File theFirefoxDir = firefoxDir();
+        File theIniFile = new File(theFirefoxDir, "profiles.ini");
+        BufferedReader theReader = null;
+        String theName = null;
+        String thePath = null;
+        boolean isRelative = true;
+
+        try {
+            theReader = new BufferedReader(new FileReader(theIniFile));
+            String theLine = null;
+
+            while ((theLine = theReader.readLine()) != null) {
+                theLine = theLine.trim();
+
+                if (theLine.startsWith("[")) {
+                    File theDir = profileDir(theFirefoxDir, theProfileName, theName, thePath, isRelative);
+
+                    if (theDir != null) {
+                        return theDir;
+                    }
+
+                    theName = null;
+                    thePath = null;
+                    isRelative = true;
+                } else if (theLine.startsWith("Name=")) {
+                    theName = theLine.substring(5);
+                } else if (theLine.startsWith("Path=")) {
+                    thePath = theLine.substring(5);
+                } else if (theLine.startsWith("IsRelative=")) {
+                    isRelative = theLine.substring(11).equals("1");
+                }
+            }
+
+            return profileDir(theFirefoxDir, theProfileName, theName, thePath, isRelative);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (null != theReader) {
+                try {
+                    theReader.close();
+                } catch (IOException e) {
+                    /* .... */
+                }
+            }
+        }
+    }
+
+    private static File profileDir(File theFirefoxDir,
+            String theProfileName,
+            String theName,
+            String thePath,
+            boolean isRelative) {
+        if (theProfileName.equals(theName) && thePath != null) {
+            File theDir = isRelative ? new File(theFirefoxDir, thePath) : new File(thePath);
+
+            if (theDir.isDirectory()) {
+                return theDir;
+            }
+        }
+
+        return null;
+    }
+
+    private static File firefoxDir() {
+        String theOS = System.getProperty("os.name").toLowerCase();
+        String theHome = System.getProperty("user.home");
+
+        if (theOS.contains("win")) {
+            return new File(System.getenv("APPDATA"), "Mozilla/Firefox");
+        } else if (theOS.contains("mac")) {
+            return new File(theHome, "Library/Application Support/Firefox");
+        }
+
+        return new File(theHome, ".mozilla/firefox");
+    }
+}
@@ -4,24 +4,22 @@
  */
 package trailwebwalk.browser;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.OutputType;
+import org.openqa.selenium.RenderedWebElement;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxProfile;
-import org.openqa.selenium.firefox.FirefoxWebElement;
-import org.openqa.selenium.firefox.internal.ProfilesIni;
 
 /**
  *
@@ -30,39 +28,151 @@ import org.openqa.selenium.firefox.internal.ProfilesIni;
  * The documentation for the commands below is found in the selenium
  * documentation - http://selenium.googlecode.com/svn/trunk/docs/api/java/org/openqa/selenium/WebDriver.html.
  * @invariant WebDriver exists and is valid (a corresponding firefox window
- * exists).
- * Note that all commands are routed through the firefox browser. Nothing is
- * cached.
+ * exists for the firefox backend).
+ * Note that all commands are routed through the driver. Nothing is cached.
+ * Only the WebDriver interfaces are used (javascript through
+ * JavascriptExecutor, screenshots through TakesScreenshot) so that any backend
+ * can be plugged in (see DriverBackend).
  * All commands here are synchronised on the WebDriver because it uses a
  * single connection manager, so if you are using multiple threads they must be
  * serialised.
  */
 public class WebDriverWrapper {
 
+    // launches are serialised so that the new browser processes can be
+    // identified by comparing the JVM's child processes before and after
+    private static final Object LAUNCH_LOCK = new Object();
     private final WebDriver webDriver;
-    private final FirefoxDriver ffWebDriver;
+    private final Set<Integer> browserPids = new HashSet<Integer>();
 
     WebDriverWrapper(String profileId) {
-        ProfilesIni allProfiles = new ProfilesIni();
-        FirefoxProfile theProfile = allProfiles.getProfile(profileId);
+        this(new BrowserLauncher(profileId, Logger.getLogger(WebDriverWrapper.class.getName())));
+    }
 
-        if(theProfile == null){
-            ffWebDriver = new FirefoxDriver();
-        } else {
-            ffWebDriver = new FirefoxDriver(theProfile);
+    WebDriverWrapper(BrowserLauncher theLauncher) {
+        synchronized (LAUNCH_LOCK) {
+            // the profile is copied by the driver as it starts - not while the template is rebuilt
+            FirefoxProfile theProfile = theLauncher.getProfile(theLauncher.prepareProfileDir());
+            Set<Integer> pidsBefore = BrowserProcess.descendantPids();
+            webDriver = theLauncher.getBackend().createDriver(theProfile);
+            browserPids.addAll(BrowserProcess.descendantPids());
+            browserPids.removeAll(pidsBefore);
+        }
+
+        PerformancePreset thePreset = theLauncher.getPreset();
+
+        if (thePreset != null && thePreset.hasViewport()) {
+            setViewportSize(thePreset.getViewportWidth(), thePreset.getViewportHeight());
         }
-        
-        webDriver = ffWebDriver;
      }
 
+    /**
+     * Sizes the window so that the page area is the size specified.
+     * @param theWidth
+     * @param theHeight
+     */
+    synchronized void setViewportSize(int theWidth, int theHeight) {
+        try {
+            executeScript("window.resizeTo(arguments[0] + window.outerWidth - window.innerWidth, "
+                    + "arguments[1] + window.outerHeight - window.innerHeight)", theWidth, theHeight);
+        } catch (UnsupportedOperationException ex) {
+            Logger.getLogger(WebDriverWrapper.class.getName()).log(Level.INFO, null, ex);
+        } catch (WebDriverException ex) {
+            Logger.getLogger(WebDriverWrapper.class.getName()).log(Level.INFO, null, ex);
+        }
+    }
+
+    /**
+     *
+     * @param theScript
+     * @param theArgs
+     * @return - the script's result.
+     * @throws UnsupportedOperationException - if the driver can't run
+     * javascript.
+     */
+    private Object executeScript(String theScript, Object... theArgs) {
+        if (!(webDriver instanceof JavascriptExecutor)) {
+            throw new UnsupportedOperationException("Driver can't run javascript");
+        }
+
+        return ((JavascriptExecutor) webDriver).executeScript(theScript, theArgs);
+    }
+
+    /**
+     * Not synchronised - looks at the browser processes rather than going
+     * through the WebDriver connection.
+     * @return - whether the browser processes are still running or true if
+     * that can't be found out (no /proc).
+     */
+    boolean isProcessAlive() {
+        if (browserPids.isEmpty()) {
+            return true;
+        }
+
+        // helper processes may come and go so only all of them going is death
+        for (Integer thePid : browserPids) {
+            if (BrowserProcess.isAlive(thePid)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Not synchronised - looks at the browser processes rather than going
+     * through the WebDriver connection.
+     * @return - the resident memory of the browser processes (and any they
+     * have started since) in kB, 0 if not known.
+     */
+    long getResidentKB() {
+        Set<Integer> allPids = new HashSet<Integer>();
+
+        for (Integer thePid : browserPids) {
+            if (BrowserProcess.isAlive(thePid)) {
+                allPids.add(thePid);
+                allPids.addAll(BrowserProcess.descendantPids(thePid));
+            }
+        }
+
+        long theTotal = 0;
+
+        for (Integer thePid : allPids) {
+            theTotal += BrowserProcess.residentKB(thePid);
+        }
+
+        return theTotal;
+    }
+
+    /**
+     *
+     * @return - whether the browser process can be checked without going
+     * through the WebDriver connection.
+     */
+    boolean hasKnownProcess() {
+        return !browserPids.isEmpty();
+    }
+
     synchronized void quit() {
         webDriver.quit();
     }
 
+    /**
+     * Gets the browser ready for reuse by another walk.
+     * @param shouldClearCookies - whether the cookies should be deleted.
+     */
+    synchronized void reset(boolean shouldClearCookies) {
+        webDriver.get("about:blank");
+
+        if (shouldClearCookies) {
+            webDriver.manage().deleteAllCookies();
+        }
+    }
+
     synchronized void stopPageLoad() {
         try{
             Object nullArgs = null;
-            Object executeScriptResult = ffWebDriver.executeScript("window.stop()", nullArgs);
+            Object executeScriptResult = executeScript("window.stop()", nullArgs);
             Logger.getLogger(WebDriverWrapper.class.getName()).log(Level.INFO, "page load stopped");
         } catch(UnsupportedOperationException ex) {
             Logger.getLogger(WebDriverWrapper.class.getName()).log(Level.INFO, null, ex);
@@ -170,16 +280,85 @@ public class WebDriverWrapper {
     }
 
     synchronized boolean isElementVisible(WebElement webElement) {
-        FirefoxWebElement theHTMLUnitWebElement = (FirefoxWebElement)webElement;
-        return theHTMLUnitWebElement.isDisplayed();
+        if (webElement instanceof RenderedWebElement) {
+            return ((RenderedWebElement) webElement).isDisplayed();
+        }
+
+        // not rendered (e.g. htmlunit) so count everything as visible
+        return true;
     }
 
     synchronized String getElementText(WebElement webElement) {
         return webElement.getText();
     }  
         
-    synchronized void screenDump(String filePathName) throws IOException {
-        File scrFile = ((TakesScreenshot)webDriver).getScreenshotAs(OutputType.FILE);
-        FileUtils.copyFile(scrFile, new File(filePathName));
+    /**
+     *
+     * Navigation Timing's responseStatus is newer than the firefox driven by
+     * this Selenium (and HtmlUnit), so this gives 0 with them - it is for
+     * later drivers.
+     * @return - the HTTP status of the current page's document from the
+     * browser's Navigation Timing entry (0 if the browser does not give it).
+     */
+    synchronized int getResponseStatus() {
+        try {
+            Object theResult = executeScript(
+                    "var p = window.performance;"
+                    + "var e = (p && p.getEntriesByType) ? p.getEntriesByType('navigation')[0] : null;"
+                    + "return (e && e.responseStatus) ? e.responseStatus : 0;");
+
+            return (theResult instanceof Number) ? ((Number) theResult).intValue() : 0;
+        } catch (UnsupportedOperationException ex) {
+            return 0;
+        } catch (WebDriverException ex) {
+            Logger.getLogger(WebDriverWrapper.class.getName()).log(Level.INFO, null, ex);
+            return 0;
+        }
+    }
+
+    synchronized String getPageText() {
+        try {
+            return webDriver.findElement(By.xpath("/html/body")).getText();
+        } catch (org.openqa.selenium.NoSuchElementException ex) {
+            return "";
+        }
+    }
+
+    /**
+     *
+     * @param xpath
+     * @return - the first matching element's bounds in the page as
+     * [x, y, width, height] (or null if there is no such element).
+     */
+    synchronized List<?> getElementBounds(String xpath) {
+        try {
+            Object theResult = executeScript(
+                    "var e = document.evaluate(arguments[0], document, null, 9, null).singleNodeValue;"
+                    + "if (!e) return null;"
+                    + "var r = e.getBoundingClientRect();"
+                    + "return [Math.round(r.left + window.pageXOffset), Math.round(r.top + window.pageYOffset),"
+                    + " Math.round(r.width), Math.round(r.height)];", xpath);
+
+            return (theResult instanceof List) ? (List<?>) theResult : null;
+        } catch (UnsupportedOperationException ex) {
+            Logger.getLogger(WebDriverWrapper.class.getName()).log(Level.INFO, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @return - whether the driver can take screenshots.
+     */
+    boolean canCaptureScreen() {
+        return webDriver instanceof TakesScreenshot;
+    }
+
+    synchronized byte[] captureScreen() {
+        if (!canCaptureScreen()) {
+            throw new UnsupportedOperationException("Driver can't take screenshots");
+        }
+
+        return ((TakesScreenshot)webDriver).getScreenshotAs(OutputType.BYTES);
     }
 }
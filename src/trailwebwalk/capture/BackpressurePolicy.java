@@ -0,0 +1,13 @@
+package trailwebwalk.capture;
+
+/**
+ *
+ * @author al
+ * What to do with a captured frame when the writer's queue is full.
+ */
+public enum BackpressurePolicy {
+
+    block,      // wait for the writer (the walk is held up)
+    dropOldest, // throw away the oldest queued frame to make room
+    skip        // throw away the new frame
+}
@@ -0,0 +1,475 @@
+package trailwebwalk.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author al
+ * Keeps the screenshot runs in the dump directory within a byte quota.
+ * The space each run takes is found once (when the quota is created) and then
+ * kept up to date as frames and derived images are written, so there is no
+ * directory scan per write. When there is not room for a write, runs other
+ * than the one being written are evicted as per the policy.
+ * Runs that the one being written links to are not evicted (its index is
+ * still open so its links can't be moved). Before a run is deleted, the
+ * frames that other runs link to are copied into those runs.
+ * Called by the screenshot writer and the post processor threads so the
+ * methods are synchronised.
+ * @invariant - usedBytes is the sum of runBytes.
+ */
+public class DumpQuota {
+
+    private final RunManifest theManifest;
+    private final long quotaBytes;
+    private final EvictionPolicy thePolicy;
+    private final int keepEvery;
+    private final FingerprintStore theFingerprints;
+    private final Logger theLogger;
+    private final Map<Integer, Long> runBytes = new HashMap<Integer, Long>();
+    private long usedBytes = 0;
+    private int evictedCount = 0;
+
+    /**
+     *
+     * @param theManifest - the runs.
+     * @param quotaBytes - the most the runs can take.
+     * @param thePolicy - what to get rid of when the quota is reached.
+     * @param keepEvery - the frames kept when thinning (keepEveryNth).
+     * @param theFingerprints - fingerprints to be forgotten with the runs
+     * (or null).
+     * @param newLogger - valid logger.
+     */
+    public DumpQuota(RunManifest theManifest,
+            long quotaBytes,
+            EvictionPolicy thePolicy,
+            int keepEvery,
+            FingerprintStore theFingerprints,
+            Logger newLogger) {
+        this.theManifest = theManifest;
+        this.quotaBytes = quotaBytes;
+        this.thePolicy = thePolicy;
+        this.keepEvery = Math.max(2, keepEvery);
+        this.theFingerprints = theFingerprints;
+        theLogger = newLogger;
+
+        for (Integer theRun : theManifest.getRuns()) {
+            long theSize = measureRun(theRun);
+            runBytes.put(theRun, theSize);
+            usedBytes += theSize;
+        }
+    }
+
+    /**
+     * Makes room (if need be) for bytes to be written to the run.
+     * @param theRun - the run being written (never evicted).
+     * @param theBytes - the size of the write.
+     * @return - whether there is room (false if the run on its own is too
+     * big).
+     */
+    public synchronized boolean makeRoom(int theRun,
+            long theBytes) {
+        while (usedBytes + theBytes > quotaBytes) {
+            if (!evictOne(theRun)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records a write to the run.
+     * @param theRun
+     * @param theBytes
+     */
+    public synchronized void added(int theRun,
+            long theBytes) {
+        Long theSize = runBytes.get(theRun);
+        runBytes.put(theRun, ((theSize == null) ? 0 : theSize) + theBytes);
+        usedBytes += theBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    public synchronized int getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     *
+     * @param theRun
+     * @return - whether the run's files are still kept (it has not been
+     * deleted to make room).
+     */
+    public synchronized boolean isKept(int theRun) {
+        return runBytes.containsKey(theRun);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DumpQuota{" + "used=" + usedBytes + ", quota=" + quotaBytes
+                + ", policy=" + thePolicy + ", evicted=" + evictedCount + '}';
+    }
+
+    /**
+     * Evicts (or thins) one run other than the current one.
+     * @param theCurrentRun
+     * @return - whether anything was evicted.
+     */
+    private boolean evictOne(int theCurrentRun) {
+        List<Integer> theRuns = new ArrayList<Integer>(theManifest.getRuns());
+        theRuns.remove(Integer.valueOf(theCurrentRun));
+        theRuns.removeAll(getLinkedRuns(theCurrentRun));
+
+        if (theRuns.isEmpty()) {
+            return false;
+        }
+
+        if (thePolicy == EvictionPolicy.leastRecentlyViewed) {
+            Collections.sort(theRuns, new Comparator<Integer>() {
+
+                public int compare(Integer firstRun, Integer secondRun) {
+                    long firstTime = theManifest.getLastUsed(firstRun);
+                    long secondTime = theManifest.getLastUsed(secondRun);
+
+                    return (firstTime < secondTime) ? -1 : ((firstTime == secondTime) ? 0 : 1);
+                }
+            });
+        } else if (thePolicy == EvictionPolicy.keepEveryNth) {
+            for (Integer theRun : theRuns) {
+                if (!theManifest.isThinned(theRun)) {
+                    try {
+                        thin(theRun);
+                        return true;
+                    } catch (IOException ex) {
+                        theLogger.log(Level.WARNING, "Failed to thin run " + theRun + " - deleting it", ex);
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (Integer theRun : theRuns) {
+            if (deleteRun(theRun)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *
+     * @param theRun
+     * @return - the other runs that the run has frames linked to (all the
+     * runs if its index can't be read).
+     */
+    private Set<Integer> getLinkedRuns(int theRun) {
+        Set<Integer> theLinkedRuns = new HashSet<Integer>();
+
+        try {
+            for (IndexEntry theEntry : FrameArchive.readIndex(theManifest.getIndexFile(theRun))) {
+                if (theEntry.getImageRun(theRun) != theRun) {
+                    theLinkedRuns.add(theEntry.getImageRun(theRun));
+                }
+            }
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Failed to read run " + theRun + " - keeping the runs", ex);
+            theLinkedRuns.addAll(theManifest.getRuns());
+        }
+
+        return theLinkedRuns;
+    }
+
+    /**
+     * Copies the frames linked to the run into the runs linked to them and
+     * then deletes the run.
+     * @param theRun - a run that the current run does not link to.
+     * @return - whether the run was deleted (not if its linked frames could
+     * not be copied).
+     */
+    private boolean deleteRun(int theRun) {
+        try {
+            copyLinkedFrames(theRun);
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Failed to copy frames linked to run " + theRun + " - keeping it", ex);
+            return false;
+        }
+
+        theLogger.log(Level.INFO, "Dump quota reached - deleting run {0}", Integer.toString(theRun));
+
+        try {
+            theManifest.deleteRun(theRun);
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Failed to update the manifest", ex);
+        }
+
+        if (theFingerprints != null) {
+            theFingerprints.forgetRun(theRun);
+        }
+
+        Long theSize = runBytes.remove(theRun);
+        usedBytes -= (theSize == null) ? 0 : theSize;
+        ++evictedCount;
+
+        return true;
+    }
+
+    /**
+     * Appends the images that other runs link to in the run to those runs'
+     * segments and makes their links frames of their own (or duplicates of
+     * them if the same image is linked more than once).
+     * @param theRun - the run about to be deleted.
+     * @throws IOException
+     */
+    private void copyLinkedFrames(int theRun) throws IOException {
+        File theSegment = theManifest.getSegmentFile(theRun);
+
+        for (Integer theOtherRun : theManifest.getRuns()) {
+            if (theOtherRun == theRun) {
+                continue;
+            }
+
+            File theIndex = theManifest.getIndexFile(theOtherRun);
+            List<IndexEntry> theEntries = FrameArchive.readIndex(theIndex);
+            Map<Long, Long> theNewOffsets = new HashMap<Long, Long>();
+            File theOtherSegment = theManifest.getSegmentFile(theOtherRun);
+            long theNewOffset = theOtherSegment.length();
+            FileOutputStream theSegmentStream = null;
+
+            try {
+                for (int i = 0; i < theEntries.size(); ++i) {
+                    IndexEntry theEntry = theEntries.get(i);
+
+                    if (theEntry.getImageRun(theOtherRun) != theRun) {
+                        continue;
+                    }
+
+                    Long theOffset = theNewOffsets.get(theEntry.getOffset());
+                    byte theKind = IndexEntry.DUPLICATE;
+
+                    if (theOffset == null) {
+                        if (theSegmentStream == null) {
+                            theSegmentStream = new FileOutputStream(theOtherSegment, true);
+                        }
+
+                        theSegmentStream.write(FrameArchive.readImage(theSegment, theEntry));
+                        theOffset = theNewOffset;
+                        theNewOffsets.put(theEntry.getOffset(), theOffset);
+                        theNewOffset += theEntry.getLength();
+                        theKind = IndexEntry.FRAME;
+                    }
+
+                    theEntries.set(i, new IndexEntry(theKind, theEntry.getFrameNumber(),
+                            theEntry.getTrailPos(), theEntry.getTimestamp(), theOffset,
+                            theEntry.getLength(), theEntry.getURL()));
+                }
+            } finally {
+                if (theSegmentStream != null) {
+                    theSegmentStream.close();
+                }
+            }
+
+            if (!theNewOffsets.isEmpty()) {
+                theLogger.log(Level.INFO, "Copied {0} frames linked to run {1} into run {2}",
+                        new Object[]{Integer.toString(theNewOffsets.size()),
+                            Integer.toString(theRun), Integer.toString(theOtherRun)});
+                File theNewIndex = new File(theIndex.getPath() + ".tmp");
+                writeIndex(theNewIndex, theEntries);
+                replace(theNewIndex, theIndex);
+                long theNewSize = measureRun(theOtherRun);
+                Long theOldSize = runBytes.put(theOtherRun, theNewSize);
+                usedBytes += theNewSize - ((theOldSize == null) ? 0 : theOldSize);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the run with every nth frame (and any frame that a later run
+     * is linked to). The links to the run are updated to the new offsets.
+     * @param theRun
+     * @throws IOException
+     */
+    private void thin(int theRun) throws IOException {
+        theLogger.log(Level.INFO, "Dump quota reached - thinning run {0} to every {1} frame",
+                new Object[]{Integer.toString(theRun), Integer.toString(keepEvery)});
+
+        File theSegment = theManifest.getSegmentFile(theRun);
+        File theIndex = theManifest.getIndexFile(theRun);
+        Set<Long> theLinkedOffsets = new HashSet<Long>();
+
+        for (Integer theOtherRun : theManifest.getRuns()) {
+            if (theOtherRun != theRun) {
+                for (IndexEntry theEntry : FrameArchive.readIndex(theManifest.getIndexFile(theOtherRun))) {
+                    if (theEntry.getImageRun(theOtherRun) == theRun) {
+                        theLinkedOffsets.add(theEntry.getOffset());
+                    }
+                }
+            }
+        }
+
+        Map<Long, Long> theNewOffsets = new HashMap<Long, Long>();
+        List<IndexEntry> theKeptEntries = new ArrayList<IndexEntry>();
+        File theNewSegment = new File(theSegment.getPath() + ".tmp");
+        FileOutputStream theSegmentStream = new FileOutputStream(theNewSegment);
+        int theFrameCount = 0;
+        long theNewOffset = 0;
+
+        try {
+            for (IndexEntry theEntry : FrameArchive.readIndex(theIndex)) {
+                if (theEntry.getKind() == IndexEntry.FRAME) {
+                    boolean shouldKeep = (theFrameCount++ % keepEvery == 0)
+                            || theLinkedOffsets.contains(theEntry.getOffset());
+
+                    if (shouldKeep) {
+                        theSegmentStream.write(FrameArchive.readImage(theSegment, theEntry));
+                        theNewOffsets.put(theEntry.getOffset(), theNewOffset);
+                        theKeptEntries.add(theEntry.withOffset(theNewOffset));
+                        theNewOffset += theEntry.getLength();
+                    } else {
+                        deleteDerived(theRun, theEntry.getFrameNumber());
+                    }
+                } else if (theEntry.getKind() == IndexEntry.DUPLICATE) {
+                    Long theOffset = theNewOffsets.get(theEntry.getOffset());
+
+                    if (theOffset != null) {
+                        theKeptEntries.add(theEntry.withOffset(theOffset));
+                    }
+                } else {
+                    theKeptEntries.add(theEntry);
+                }
+            }
+        } finally {
+            theSegmentStream.close();
+        }
+
+        writeIndex(new File(theIndex.getPath() + ".tmp"), theKeptEntries);
+        replace(theNewSegment, theSegment);
+        replace(new File(theIndex.getPath() + ".tmp"), theIndex);
+
+        if (!theLinkedOffsets.isEmpty()) {
+            relink(theRun, theNewOffsets);
+        }
+
+        theManifest.markThinned(theRun);
+
+        if (theFingerprints != null) {
+            theFingerprints.forgetRun(theRun);
+        }
+
+        long theNewSize = measureRun(theRun);
+        Long theOldSize = runBytes.put(theRun, theNewSize);
+        usedBytes += theNewSize - ((theOldSize == null) ? 0 : theOldSize);
+        ++evictedCount;
+    }
+
+    /**
+     * Updates the offsets of the other runs' links to the thinned run.
+     */
+    private void relink(int theRun,
+            Map<Long, Long> theNewOffsets) throws IOException {
+        for (Integer theOtherRun : theManifest.getRuns()) {
+            if (theOtherRun == theRun) {
+                continue;
+            }
+
+            File theIndex = theManifest.getIndexFile(theOtherRun);
+            List<IndexEntry> theEntries = FrameArchive.readIndex(theIndex);
+            boolean isChanged = false;
+
+            for (int i = 0; i < theEntries.size(); ++i) {
+                IndexEntry theEntry = theEntries.get(i);
+
+                if (theEntry.getImageRun(theOtherRun) == theRun) {
+                    Long theOffset = theNewOffsets.get(theEntry.getOffset());
+
+                    if (theOffset != null) {
+                        theEntries.set(i, theEntry.withOffset(theOffset));
+                        isChanged = true;
+                    }
+                }
+            }
+
+            if (isChanged) {
+                File theNewIndex = new File(theIndex.getPath() + ".tmp");
+                writeIndex(theNewIndex, theEntries);
+                replace(theNewIndex, theIndex);
+            }
+        }
+    }
+
+    private void deleteDerived(int theRun,
+            int theFrameNumber) {
+        File theDerivedDir = theManifest.getDerivedDir(theRun);
+        String[] theNames = {"thumb" + theFrameNumber + ".jpg",
+            "frame" + theFrameNumber + ".jpg", "target" + theFrameNumber + ".png"};
+
+        for (String theName : theNames) {
+            new File(theDerivedDir, theName).delete();
+        }
+    }
+
+    private static void writeIndex(File theFile,
+            List<IndexEntry> theEntries) throws IOException {
+        DataOutputStream theOutput = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(theFile)));
+
+        try {
+            for (IndexEntry theEntry : theEntries) {
+                theEntry.write(theOutput);
+            }
+        } finally {
+            theOutput.close();
+        }
+    }
+
+    private static void replace(File theNewFile,
+            File theFile) throws IOException {
+        if (!theNewFile.renameTo(theFile)) {
+            theFile.delete();
+
+            if (!theNewFile.renameTo(theFile)) {
+                throw new IOException("Failed to replace " + theFile);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param theRun
+     * @return - the bytes taken by the run's files.
+     */
+    private long measureRun(int theRun) {
+        long theSize = theManifest.getSegmentFile(theRun).length()
+                + theManifest.getIndexFile(theRun).length();
+        File[] theDerivedFiles = theManifest.getDerivedDir(theRun).listFiles();
+
+        if (theDerivedFiles != null) {
+            for (File theFile : theDerivedFiles) {
+                theSize += theFile.length();
+            }
+        }
+
+        return theSize;
+    }
+}
@@ -0,0 +1,13 @@
+package trailwebwalk.capture;
+
+/**
+ *
+ * @author al
+ * What to get rid of when the screenshot runs take more than the quota.
+ */
+public enum EvictionPolicy {
+
+    oldestRun,           // delete the oldest run
+    leastRecentlyViewed, // delete the run that was viewed (extracted) longest ago
+    keepEveryNth         // thin the oldest run to every nth frame (then delete runs)
+}
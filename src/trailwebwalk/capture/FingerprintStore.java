@@ -0,0 +1,113 @@
+package trailwebwalk.capture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ *
+ * @author al
+ * The fingerprint of each page captured, by URL, kept in the dump directory
+ * (fingerprints.properties) between runs so that a page that has not changed
+ * since the last run can be linked to its earlier capture rather than being
+ * captured again.
+ * Read by the walker thread and updated by the screenshot writer thread so
+ * the methods are synchronised.
+ */
+public class FingerprintStore {
+
+    private static final String STORE_FILE = "fingerprints.properties";
+    private final File theFile;
+    private final Map<String, PageFingerprint> theFingerprints = new HashMap<String, PageFingerprint>();
+    private boolean isChanged = false;
+
+    /**
+     *
+     * @param dumpDir - existing directory.
+     * @throws IOException - if the store can't be read.
+     */
+    public FingerprintStore(File dumpDir) throws IOException {
+        theFile = new File(dumpDir, STORE_FILE);
+
+        if (theFile.exists()) {
+            Properties theProperties = new Properties();
+            FileInputStream is = new FileInputStream(theFile);
+
+            try {
+                theProperties.load(is);
+            } finally {
+                is.close();
+            }
+
+            for (String theURL : theProperties.stringPropertyNames()) {
+                PageFingerprint theFingerprint = PageFingerprint.parse(theProperties.getProperty(theURL));
+
+                if (theFingerprint != null) {
+                    theFingerprints.put(theURL, theFingerprint);
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param theURL
+     * @return - the page's last fingerprint (or null if it has not been seen).
+     */
+    public synchronized PageFingerprint get(String theURL) {
+        return theFingerprints.get(theURL);
+    }
+
+    public synchronized void put(String theURL,
+            PageFingerprint theFingerprint) {
+        theFingerprints.put(theURL, theFingerprint);
+        isChanged = true;
+    }
+
+    /**
+     * Forgets the pages whose capture is in the run (e.g. when the run has
+     * been deleted).
+     * @param theRun
+     */
+    public synchronized void forgetRun(int theRun) {
+        Iterator<PageFingerprint> theIterator = theFingerprints.values().iterator();
+
+        while (theIterator.hasNext()) {
+            if (theIterator.next().getRun() == theRun) {
+                theIterator.remove();
+                isChanged = true;
+            }
+        }
+    }
+
+    /**
+     * Writes the store if it has changed.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!isChanged) {
+            return;
+        }
+
+        Properties theProperties = new Properties();
+
+        for (Map.Entry<String, PageFingerprint> theEntry : theFingerprints.entrySet()) {
+            theProperties.setProperty(theEntry.getKey(), theEntry.getValue().format());
+        }
+
+        FileOutputStream os = new FileOutputStream(theFile);
+
+        try {
+            theProperties.store(os, "Page fingerprints");
+        } finally {
+            os.close();
+        }
+
+        isChanged = false;
+    }
+}
@@ -0,0 +1,156 @@
+package trailwebwalk.capture;
+
+import java.awt.Rectangle;
+
+/**
+ *
+ * @author al
+ * A screenshot captured during a walk (PNG bytes as returned by the driver)
+ * with where and when it was taken.
+ * A linked frame has no image - the page has not changed since it was
+ * captured in an earlier run (see the fingerprint).
+ * @invariant - the image bytes are not changed after construction (they may
+ * be shared between threads without copying).
+ */
+public class Frame {
+
+    private final int frameNumber;
+    private final int trailPos;
+    private final String theURL;
+    private final long timestamp;
+    private final byte[] imageBytes;
+    private final PageFingerprint theFingerprint;
+    private final boolean isLinked;
+    private final Rectangle targetBounds;
+
+    /**
+     *
+     * @param frameNumber - sequence number of the frame within the run.
+     * @param trailPos - position in the trail when it was captured.
+     * @param theURL - the page that was captured.
+     * @param imageBytes - PNG image (not copied).
+     */
+    public Frame(int frameNumber,
+            int trailPos,
+            String theURL,
+            byte[] imageBytes) {
+        this(frameNumber, trailPos, theURL, imageBytes, null, false, null, System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @param frameNumber - sequence number of the frame within the run.
+     * @param trailPos - position in the trail when it was captured.
+     * @param theURL - the page that was captured.
+     * @param imageBytes - PNG image (not copied).
+     * @param theFingerprint - the page's fingerprint when it was captured.
+     */
+    public Frame(int frameNumber,
+            int trailPos,
+            String theURL,
+            byte[] imageBytes,
+            PageFingerprint theFingerprint) {
+        this(frameNumber, trailPos, theURL, imageBytes, theFingerprint, false, null,
+                System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @param frameNumber
+     * @param trailPos
+     * @param theURL
+     * @param theFingerprint - fingerprint with the earlier capture's location.
+     * @return - frame linked to the earlier capture.
+     */
+    public static Frame linkedFrame(int frameNumber,
+            int trailPos,
+            String theURL,
+            PageFingerprint theFingerprint) {
+        return new Frame(frameNumber, trailPos, theURL, new byte[0], theFingerprint, true, null,
+                System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @param theImageBytes - PNG image (not copied).
+     * @return - this frame with a different image (e.g. scaled down).
+     */
+    public Frame withImageBytes(byte[] theImageBytes) {
+        return new Frame(frameNumber, trailPos, theURL, theImageBytes, theFingerprint, isLinked,
+                targetBounds, timestamp);
+    }
+
+    /**
+     *
+     * @param theBounds - where the trail item's target is in the image.
+     * @return - this frame with the target's bounds.
+     */
+    public Frame withTargetBounds(Rectangle theBounds) {
+        return new Frame(frameNumber, trailPos, theURL, imageBytes, theFingerprint, isLinked,
+                new Rectangle(theBounds), timestamp);
+    }
+
+    private Frame(int frameNumber,
+            int trailPos,
+            String theURL,
+            byte[] imageBytes,
+            PageFingerprint theFingerprint,
+            boolean isLinked,
+            Rectangle targetBounds,
+            long timestamp) {
+        this.targetBounds = targetBounds;
+        this.theFingerprint = theFingerprint;
+        this.isLinked = isLinked;
+        this.frameNumber = frameNumber;
+        this.trailPos = trailPos;
+        this.theURL = theURL;
+        this.imageBytes = imageBytes;
+        this.timestamp = timestamp;
+    }
+
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    public int getTrailPos() {
+        return trailPos;
+    }
+
+    public String getURL() {
+        return theURL;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte[] getImageBytes() {
+        return imageBytes;
+    }
+
+    /**
+     *
+     * @return - the page's fingerprint (null if not taken).
+     */
+    public PageFingerprint getFingerprint() {
+        return theFingerprint;
+    }
+
+    public boolean isLinked() {
+        return isLinked;
+    }
+
+    /**
+     *
+     * @return - where the trail item's target is in the image (null if not
+     * known).
+     */
+    public Rectangle getTargetBounds() {
+        return (targetBounds == null) ? null : new Rectangle(targetBounds);
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{" + "frameNumber=" + frameNumber + ", trailPos=" + trailPos + ", theURL=" + theURL + '}';
+    }
+}
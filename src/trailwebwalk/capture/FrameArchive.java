@@ -0,0 +1,250 @@
+package trailwebwalk.capture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author al
+ * The frames of one screenshot run. Frames are appended to the run's segment
+ * file and an entry for each is appended to the run's index file.
+ * Appending is done by one thread (the screenshot writer); reading can be done
+ * at any time (including for runs that are still being written).
+ * If there is a quota, nothing is written without room being made for it
+ * first and everything written is counted against the quota.
+ * @invariant - every index entry refers to a frame that is wholly in the
+ * segment file (the frame is written before its entry).
+ */
+public class FrameArchive {
+
+    private final int runNumber;
+    private final FileOutputStream segmentStream;
+    private final FileChannel segmentChannel;
+    private final DataOutputStream indexStream;
+    private final File derivedDir;
+    private final DumpQuota theQuota;
+    private static final int MAX_ENTRY_BYTES = 1024; // allowance for an index entry
+
+    /**
+     * Opens a run for appending.
+     * @param theManifest - the manifest that the run is in.
+     * @param runNumber - the run (from RunManifest.startRun).
+     * @throws IOException
+     */
+    public FrameArchive(RunManifest theManifest,
+            int runNumber) throws IOException {
+        this(theManifest, runNumber, null);
+    }
+
+    /**
+     * Opens a run for appending within a quota.
+     * @param theManifest - the manifest that the run is in.
+     * @param runNumber - the run (from RunManifest.startRun).
+     * @param theQuota - null for no quota.
+     * @throws IOException
+     */
+    public FrameArchive(RunManifest theManifest,
+            int runNumber,
+            DumpQuota theQuota) throws IOException {
+        this.theQuota = theQuota;
+        this.runNumber = runNumber;
+        derivedDir = theManifest.getDerivedDir(runNumber);
+        segmentStream = new FileOutputStream(theManifest.getSegmentFile(runNumber), true);
+        segmentChannel = segmentStream.getChannel();
+        indexStream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(theManifest.getIndexFile(runNumber), true)));
+    }
+
+    public int getRunNumber() {
+        return runNumber;
+    }
+
+    /**
+     *
+     * @return - the directory for images made from this run's frames.
+     */
+    public File getDerivedDir() {
+        return derivedDir;
+    }
+
+    /**
+     * Appends the frame's image to the segment and its entry to the index.
+     * @param theFrame
+     * @return - the index entry for the frame.
+     * @throws IOException
+     */
+    public synchronized IndexEntry append(Frame theFrame) throws IOException {
+        checkRoom(theFrame.getImageBytes().length + MAX_ENTRY_BYTES);
+        long theOffset = segmentChannel.size();
+        ByteBuffer theBuffer = ByteBuffer.wrap(theFrame.getImageBytes());
+
+        while (theBuffer.hasRemaining()) {
+            segmentChannel.write(theBuffer);
+        }
+
+        IndexEntry theEntry = new IndexEntry(IndexEntry.FRAME, theFrame.getFrameNumber(),
+                theFrame.getTrailPos(), theFrame.getTimestamp(), theOffset,
+                theFrame.getImageBytes().length, theFrame.getURL());
+        writeEntry(theEntry, theFrame.getImageBytes().length);
+
+        return theEntry;
+    }
+
+    /**
+     * Appends an index entry for the frame that refers to the image of an
+     * earlier frame (nothing is added to the segment).
+     * @param theFrame
+     * @param theOriginal - the entry of the earlier frame in this run.
+     * @return - the index entry for the frame.
+     * @throws IOException
+     */
+    public synchronized IndexEntry appendDuplicate(Frame theFrame,
+            IndexEntry theOriginal) throws IOException {
+        IndexEntry theEntry = new IndexEntry(IndexEntry.DUPLICATE, theFrame.getFrameNumber(),
+                theFrame.getTrailPos(), theFrame.getTimestamp(), theOriginal.getOffset(),
+                theOriginal.getLength(), theFrame.getURL());
+        checkRoom(MAX_ENTRY_BYTES);
+        writeEntry(theEntry, 0);
+
+        return theEntry;
+    }
+
+    /**
+     * Appends an index entry for the frame that refers to the image captured
+     * in an earlier run (nothing is added to the segment).
+     * @param theFrame - frame with a fingerprint that has a capture.
+     * @return - the index entry for the frame.
+     * @throws IOException
+     */
+    public synchronized IndexEntry appendLinked(Frame theFrame) throws IOException {
+        PageFingerprint theFingerprint = theFrame.getFingerprint();
+        IndexEntry theEntry = new IndexEntry(IndexEntry.LINKED, theFrame.getFrameNumber(),
+                theFrame.getTrailPos(), theFrame.getTimestamp(), theFingerprint.getOffset(),
+                theFingerprint.getLength(), theFrame.getURL(), theFingerprint.getRun());
+        checkRoom(MAX_ENTRY_BYTES);
+
+        if (theQuota != null && !theQuota.isKept(theFingerprint.getRun())) {
+            // deleted since the frame was linked
+            throw new IOException("Run " + theFingerprint.getRun() + " is no longer kept");
+        }
+
+        writeEntry(theEntry, 0);
+
+        return theEntry;
+    }
+
+    /**
+     * Makes room for an image made from one of this run's frames.
+     * @param theBytes - the most the image is expected to take.
+     * @return - whether there is room.
+     */
+    public boolean makeRoomForDerived(long theBytes) {
+        return (theQuota == null) || theQuota.makeRoom(runNumber, theBytes);
+    }
+
+    /**
+     * Counts an image made from one of this run's frames against the quota.
+     * @param theFile - the image written to the derived directory.
+     */
+    public void addDerived(File theFile) {
+        if (theQuota != null) {
+            theQuota.added(runNumber, theFile.length());
+        }
+    }
+
+    private void checkRoom(long theBytes) throws IOException {
+        if (theQuota != null && !theQuota.makeRoom(runNumber, theBytes)) {
+            throw new IOException("Dump quota reached - " + theQuota);
+        }
+    }
+
+    private void writeEntry(IndexEntry theEntry,
+            long theImageBytes) throws IOException {
+        int theSizeBefore = indexStream.size();
+        theEntry.write(indexStream);
+        indexStream.flush();
+
+        if (theQuota != null) {
+            theQuota.added(runNumber, theImageBytes + indexStream.size() - theSizeBefore);
+        }
+    }
+
+    /**
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        try {
+            indexStream.close();
+        } finally {
+            segmentStream.close();
+        }
+    }
+
+    /**
+     *
+     * @param theIndexFile
+     * @return - the entries in the index (in the order they were written).
+     * @throws IOException
+     */
+    public static List<IndexEntry> readIndex(File theIndexFile) throws IOException {
+        List<IndexEntry> theEntries = new ArrayList<IndexEntry>();
+        DataInputStream theInput = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(theIndexFile)));
+
+        try {
+            while (true) {
+                theEntries.add(IndexEntry.read(theInput));
+            }
+        } catch (EOFException ex) {
+            // end of index (or a partly written last entry)
+        } finally {
+            theInput.close();
+        }
+
+        return theEntries;
+    }
+
+    /**
+     *
+     * @param theSegmentFile
+     * @param theEntry - entry from the segment's index.
+     * @return - the frame's image.
+     * @throws IOException
+     */
+    public static byte[] readImage(File theSegmentFile,
+            IndexEntry theEntry) throws IOException {
+        RandomAccessFile theFile = new RandomAccessFile(theSegmentFile, "r");
+
+        try {
+            ByteBuffer theBuffer = ByteBuffer.allocate(theEntry.getLength());
+            FileChannel theChannel = theFile.getChannel();
+            long thePosition = theEntry.getOffset();
+
+            while (theBuffer.hasRemaining()) {
+                int theCount = theChannel.read(theBuffer, thePosition);
+
+                if (theCount < 0) {
+                    throw new EOFException("Segment shorter than index");
+                }
+
+                thePosition += theCount;
+            }
+
+            return theBuffer.array();
+        } finally {
+            theFile.close();
+        }
+    }
+}
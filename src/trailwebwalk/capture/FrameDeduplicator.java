@@ -0,0 +1,92 @@
+package trailwebwalk.capture;
+
+import java.util.LinkedList;
+
+/**
+ *
+ * @author al
+ * Remembers the perceptual hashes of the most recently stored frames so that
+ * a new frame that looks the same as one of them can be stored as a reference
+ * to it instead of as a new image.
+ * Only frames of the same page (URL) are matched - different pages built on
+ * the same template can hash within a few bits of each other.
+ * Only used by the screenshot writer thread.
+ * @invariant - no more than windowSize frames are remembered.
+ */
+public class FrameDeduplicator {
+
+    private final int windowSize;
+    private final int maxDistance;
+    private final LinkedList<HashedEntry> recentFrames = new LinkedList<HashedEntry>();
+
+    /**
+     *
+     * @param windowSize - the number of recent frames compared against.
+     * @param maxDistance - the most bits that can differ for frames to be
+     * counted as the same.
+     */
+    public FrameDeduplicator(int windowSize,
+            int maxDistance) {
+        this.windowSize = Math.max(1, windowSize);
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     *
+     * @param theHash
+     * @param theURL - the page the frame is of.
+     * @return - the entry of the closest matching recent frame of the page
+     * (or null if none is close enough).
+     */
+    public IndexEntry findMatch(long theHash,
+            String theURL) {
+        IndexEntry theMatch = null;
+        int theBestDistance = maxDistance + 1;
+
+        for (HashedEntry theRecent : recentFrames) {
+            if (!theRecent.theEntry.getURL().equals(theURL)) {
+                continue;
+            }
+
+            int theDistance = PerceptualHash.distance(theHash, theRecent.theHash);
+
+            if (theDistance < theBestDistance) {
+                theBestDistance = theDistance;
+                theMatch = theRecent.theEntry;
+            }
+        }
+
+        return theMatch;
+    }
+
+    /**
+     * Remembers a stored frame (forgetting the oldest if the window is full).
+     * @param theHash
+     * @param theEntry - the frame's index entry.
+     */
+    public void remember(long theHash, IndexEntry theEntry) {
+        recentFrames.addFirst(new HashedEntry(theHash, theEntry));
+
+        while (recentFrames.size() > windowSize) {
+            recentFrames.removeLast();
+        }
+    }
+
+    /**
+     * Forgets everything (e.g. when a new run is started).
+     */
+    public void clear() {
+        recentFrames.clear();
+    }
+
+    private static class HashedEntry {
+
+        private final long theHash;
+        private final IndexEntry theEntry;
+
+        HashedEntry(long theHash, IndexEntry theEntry) {
+            this.theHash = theHash;
+            this.theEntry = theEntry;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package trailwebwalk.capture;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *
+ * @author al
+ * Command line tool to get frames out of a screenshot run as PNG files.
+ * usage: FrameExtractor dumpDir run [frame | first-last] [outputDir]
+ * With no frame given the run's index is listed.
+ */
+public class FrameExtractor {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: FrameExtractor dumpDir run [frame | first-last] [outputDir]");
+            System.exit(1);
+        }
+
+        RunManifest theManifest = new RunManifest(new File(args[0]));
+        int theRun = Integer.parseInt(args[1]);
+        List<IndexEntry> theEntries = FrameArchive.readIndex(theManifest.getIndexFile(theRun));
+
+        if (args.length < 3) {
+            for (IndexEntry theEntry : theEntries) {
+                System.out.println(theEntry);
+            }
+            return;
+        }
+
+        String theRange = args[2];
+        int theDash = theRange.indexOf('-');
+        int theFirst = Integer.parseInt(theDash < 0 ? theRange : theRange.substring(0, theDash));
+        int theLast = (theDash < 0) ? theFirst : Integer.parseInt(theRange.substring(theDash + 1));
+        File theOutputDir = new File(args.length > 3 ? args[3] : ".");
+        int theCount = extract(theManifest, theRun, theFirst, theLast, theOutputDir);
+
+        System.out.println("Extracted " + theCount + " frames to " + theOutputDir);
+    }
+
+    /**
+     * Writes the frames in the range to run<N>_dump<frame>.png files.
+     * @param theManifest
+     * @param theRun
+     * @param theFirst - first frame number
+     * @param theLast - last frame number (inclusive)
+     * @param theOutputDir - existing directory
+     * @return - number of frames written.
+     * @throws IOException
+     */
+    public static int extract(RunManifest theManifest,
+            int theRun,
+            int theFirst,
+            int theLast,
+            File theOutputDir) throws IOException {
+        int theCount = 0;
+        List<IndexEntry> theEntries = FrameArchive.readIndex(theManifest.getIndexFile(theRun));
+        theManifest.markViewed(theRun);
+
+        for (IndexEntry theEntry : theEntries) {
+            if (theEntry.getFrameNumber() >= theFirst
+                    && theEntry.getFrameNumber() <= theLast) {
+                File theSegment = theManifest.getSegmentFile(theEntry.getImageRun(theRun));
+
+                if (!theSegment.exists()) {
+                    // linked to a run that has since been deleted (see DumpQuota)
+                    System.out.println("Image no longer kept for " + theEntry);
+                    continue;
+                }
+
+                byte[] theImage = FrameArchive.readImage(theSegment, theEntry);
+                File theFile = new File(theOutputDir,
+                        "run" + theRun + "_dump" + theEntry.getFrameNumber() + ".png");
+                FileOutputStream os = new FileOutputStream(theFile);
+
+                try {
+                    os.write(theImage);
+                } finally {
+                    os.close();
+                }
+
+                ++theCount;
+            }
+        }
+
+        return theCount;
+    }
+}
@@ -0,0 +1,98 @@
+package trailwebwalk.capture;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ *
+ * @author al
+ * The result of a HEAD request for a page - the status and the validators
+ * (ETag and Last-Modified) the server gave. If earlier validators are passed
+ * the request is conditional so an unchanged page gives 304 (Not Modified)
+ * without the server sending anything else.
+ * @invariant - eTag and lastModified are not null ("" if not given).
+ */
+public class HeadCheck {
+
+    public static final int NOT_MODIFIED = 304;
+    private final int status;
+    private final String eTag;
+    private final String lastModified;
+
+    public HeadCheck(int status,
+            String eTag,
+            String lastModified) {
+        this.status = status;
+        this.eTag = (eTag == null) ? "" : eTag;
+        this.lastModified = (lastModified == null) ? "" : lastModified;
+    }
+
+    /**
+     *
+     * @param theURL - http(s) URL.
+     * @param ifNoneMatch - ETag from earlier ("" for none).
+     * @param ifModifiedSince - Last-Modified from earlier ("" for none).
+     * @param timeoutMillis - connect and read timeout.
+     * @return - the server's answer.
+     * @throws IOException - if the server could not be asked (including for
+     * URLs that are not http).
+     */
+    public static HeadCheck fetch(URL theURL,
+            String ifNoneMatch,
+            String ifModifiedSince,
+            int timeoutMillis) throws IOException {
+        URLConnection theConnection = theURL.openConnection();
+
+        if (!(theConnection instanceof HttpURLConnection)) {
+            throw new IOException("Not an http URL: " + theURL);
+        }
+
+        HttpURLConnection theHttpConnection = (HttpURLConnection) theConnection;
+
+        try {
+            theHttpConnection.setRequestMethod("HEAD");
+            theHttpConnection.setConnectTimeout(timeoutMillis);
+            theHttpConnection.setReadTimeout(timeoutMillis);
+            theHttpConnection.setInstanceFollowRedirects(true);
+
+            if (ifNoneMatch.length() > 0) {
+                theHttpConnection.setRequestProperty("If-None-Match", ifNoneMatch);
+            }
+
+            if (ifModifiedSince.length() > 0) {
+                theHttpConnection.setRequestProperty("If-Modified-Since", ifModifiedSince);
+            }
+
+            int theStatus = theHttpConnection.getResponseCode();
+
+            return new HeadCheck(theStatus,
+                    theHttpConnection.getHeaderField("ETag"),
+                    theHttpConnection.getHeaderField("Last-Modified"));
+        } finally {
+            theHttpConnection.disconnect();
+        }
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isNotModified() {
+        return status == NOT_MODIFIED;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return "HeadCheck{" + "status=" + status + ", eTag=" + eTag + ", lastModified=" + lastModified + '}';
+    }
+}
@@ -0,0 +1,149 @@
+package trailwebwalk.capture;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ *
+ * @author al
+ * Entry in a run's frame index - where a frame is in the run's segment file
+ * and where/when it was captured.
+ * A duplicate frame has no image of its own; its offset and length are those
+ * of the earlier frame that it looks the same as.
+ * A linked frame has no image either; its offset and length are those of a
+ * frame in the segment of an earlier run (linkedRun).
+ * @invariant - offset and length are within the segment file.
+ */
+public class IndexEntry {
+
+    // kinds of entry
+    public static final byte FRAME = 0; // image is in this run's segment
+    public static final byte DUPLICATE = 1; // offset/length are those of an earlier frame
+    public static final byte LINKED = 2; // offset/length are in linkedRun's segment
+
+    private final byte theKind;
+    private final int frameNumber;
+    private final int trailPos;
+    private final long timestamp;
+    private final long offset;
+    private final int length;
+    private final String theURL;
+    private final int linkedRun;
+
+    public IndexEntry(byte theKind,
+            int frameNumber,
+            int trailPos,
+            long timestamp,
+            long offset,
+            int length,
+            String theURL) {
+        this(theKind, frameNumber, trailPos, timestamp, offset, length, theURL, 0);
+    }
+
+    public IndexEntry(byte theKind,
+            int frameNumber,
+            int trailPos,
+            long timestamp,
+            long offset,
+            int length,
+            String theURL,
+            int linkedRun) {
+        this.linkedRun = linkedRun;
+        this.theKind = theKind;
+        this.frameNumber = frameNumber;
+        this.trailPos = trailPos;
+        this.timestamp = timestamp;
+        this.offset = offset;
+        this.length = length;
+        this.theURL = theURL;
+    }
+
+    /**
+     *
+     * @param theInput
+     * @return - entry read from the index.
+     * @throws IOException - including EOFException at the end of the index.
+     */
+    static IndexEntry read(DataInput theInput) throws IOException {
+        byte theKind = theInput.readByte();
+        int frameNumber = theInput.readInt();
+        int trailPos = theInput.readInt();
+        long timestamp = theInput.readLong();
+        long offset = theInput.readLong();
+        int length = theInput.readInt();
+        String theURL = theInput.readUTF();
+        int linkedRun = (theKind == LINKED) ? theInput.readInt() : 0;
+
+        return new IndexEntry(theKind, frameNumber, trailPos, timestamp, offset, length, theURL, linkedRun);
+    }
+
+    void write(DataOutput theOutput) throws IOException {
+        theOutput.writeByte(theKind);
+        theOutput.writeInt(frameNumber);
+        theOutput.writeInt(trailPos);
+        theOutput.writeLong(timestamp);
+        theOutput.writeLong(offset);
+        theOutput.writeInt(length);
+        theOutput.writeUTF(theURL);
+
+        if (theKind == LINKED) {
+            theOutput.writeInt(linkedRun);
+        }
+    }
+
+    /**
+     *
+     * @param theOffset
+     * @return - this entry with the image at the offset (e.g. after the
+     * segment has been rewritten).
+     */
+    IndexEntry withOffset(long theOffset) {
+        return new IndexEntry(theKind, frameNumber, trailPos, timestamp, theOffset, length, theURL, linkedRun);
+    }
+
+    public byte getKind() {
+        return theKind;
+    }
+
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    public int getTrailPos() {
+        return trailPos;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getURL() {
+        return theURL;
+    }
+
+    /**
+     *
+     * @param thisRun - the run that the entry is in.
+     * @return - the run whose segment has the image.
+     */
+    public int getImageRun(int thisRun) {
+        return (theKind == LINKED) ? linkedRun : thisRun;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexEntry{" + "kind=" + theKind + ", frameNumber=" + frameNumber + ", trailPos=" + trailPos
+                + ", timestamp=" + timestamp + ", offset=" + offset + ", length=" + length
+                + ", theURL=" + theURL
+                + ((theKind == LINKED) ? ", linkedRun=" + linkedRun : "") + '}';
+    }
+}
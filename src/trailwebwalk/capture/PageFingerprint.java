@@ -0,0 +1,154 @@
+package trailwebwalk.capture;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ *
+ * @author al
+ * What a page looked like when it was last captured - a hash of its text and
+ * the server's validators - and where that capture is (run, offset and length
+ * in the run's segment).
+ * Immutable so it can be handed from the walker thread to the writer thread.
+ * @invariant - no field is null; run is 0 if there is no capture.
+ */
+public class PageFingerprint {
+
+    private final String textHash;
+    private final String eTag;
+    private final String lastModified;
+    private final int run;
+    private final long offset;
+    private final int length;
+
+    public PageFingerprint(String textHash,
+            String eTag,
+            String lastModified) {
+        this(textHash, eTag, lastModified, 0, 0, 0);
+    }
+
+    private PageFingerprint(String textHash,
+            String eTag,
+            String lastModified,
+            int run,
+            long offset,
+            int length) {
+        this.textHash = textHash;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.run = run;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     *
+     * @param theText - the page's text.
+     * @return - hex MD5 of the text.
+     */
+    public static String hashText(String theText) {
+        try {
+            MessageDigest theDigest = MessageDigest.getInstance("MD5");
+            byte[] theHash = theDigest.digest(theText.getBytes("UTF-8"));
+            StringBuilder theResult = new StringBuilder();
+
+            for (byte theByte : theHash) {
+                theResult.append(Integer.toHexString((theByte & 0xff) | 0x100).substring(1));
+            }
+
+            return theResult.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     *
+     * @param run
+     * @param offset
+     * @param length
+     * @return - this fingerprint with the location of the capture.
+     */
+    public PageFingerprint at(int run,
+            long offset,
+            int length) {
+        return new PageFingerprint(textHash, eTag, lastModified, run, offset, length);
+    }
+
+    /**
+     *
+     * @param theOther
+     * @return - whether the page is the same as when the other was taken (the
+     * text and the validators match).
+     */
+    public boolean isSameContent(PageFingerprint theOther) {
+        return textHash.equals(theOther.textHash)
+                && eTag.equals(theOther.eTag)
+                && lastModified.equals(theOther.lastModified);
+    }
+
+    public boolean hasCapture() {
+        return run > 0;
+    }
+
+    public String getTextHash() {
+        return textHash;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public int getRun() {
+        return run;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     *
+     * @return - the fingerprint as one line (see parse).
+     */
+    String format() {
+        return textHash + '\t' + eTag + '\t' + lastModified + '\t' + run + '\t' + offset + '\t' + length;
+    }
+
+    /**
+     *
+     * @param theLine - from format.
+     * @return - the fingerprint or null if the line is not valid.
+     */
+    static PageFingerprint parse(String theLine) {
+        String[] theFields = theLine.split("\t", -1);
+
+        if (theFields.length != 6) {
+            return null;
+        }
+
+        try {
+            return new PageFingerprint(theFields[0], theFields[1], theFields[2],
+                    Integer.parseInt(theFields[3]), Long.parseLong(theFields[4]),
+                    Integer.parseInt(theFields[5]));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PageFingerprint{" + format().replace('\t', ',') + '}';
+    }
+}
@@ -0,0 +1,111 @@
+package trailwebwalk.capture;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ *
+ * @author al
+ * Difference hash (dHash) of an image - a 64 bit value that is nearly the
+ * same for images that look nearly the same. The image is decoded subsampled
+ * (only about every nth pixel is read) and reduced to 9x8 greys; each bit is
+ * whether a grey is brighter than its right hand neighbour.
+ */
+public class PerceptualHash {
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    private static final int DECODE_WIDTH = 72; // roughly the width decoded to
+
+    /**
+     *
+     * @param theImageBytes - encoded image (e.g. PNG).
+     * @return - the hash of the image.
+     * @throws IOException - if the image can't be decoded.
+     */
+    public static long hash(byte[] theImageBytes) throws IOException {
+        BufferedImage theImage = decodeSubsampled(theImageBytes);
+
+        if (theImage == null) {
+            throw new IOException("Image could not be decoded");
+        }
+
+        return hash(theImage);
+    }
+
+    /**
+     *
+     * @param theImage
+     * @return - the hash of the image.
+     */
+    public static long hash(BufferedImage theImage) {
+        BufferedImage theSmallImage = new BufferedImage(HASH_WIDTH, HASH_HEIGHT,
+                BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D theGraphics = theSmallImage.createGraphics();
+        theGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        theGraphics.drawImage(theImage, 0, 0, HASH_WIDTH, HASH_HEIGHT, null);
+        theGraphics.dispose();
+
+        long theHash = 0;
+
+        for (int y = 0; y < HASH_HEIGHT; ++y) {
+            for (int x = 0; x < HASH_WIDTH - 1; ++x) {
+                int theLeft = theSmallImage.getRaster().getSample(x, y, 0);
+                int theRight = theSmallImage.getRaster().getSample(x + 1, y, 0);
+                theHash <<= 1;
+
+                if (theLeft > theRight) {
+                    theHash |= 1;
+                }
+            }
+        }
+
+        return theHash;
+    }
+
+    /**
+     *
+     * @param firstHash
+     * @param secondHash
+     * @return - the number of bits that differ.
+     */
+    public static int distance(long firstHash, long secondHash) {
+        return Long.bitCount(firstHash ^ secondHash);
+    }
+
+    private static BufferedImage decodeSubsampled(byte[] theImageBytes) throws IOException {
+        ImageInputStream theInput = ImageIO.createImageInputStream(new ByteArrayInputStream(theImageBytes));
+
+        try {
+            Iterator<ImageReader> theReaders = ImageIO.getImageReaders(theInput);
+
+            if (!theReaders.hasNext()) {
+                return null;
+            }
+
+            ImageReader theReader = theReaders.next();
+
+            try {
+                theReader.setInput(theInput, true, true);
+                int theStep = Math.max(1, theReader.getWidth(0) / DECODE_WIDTH);
+                ImageReadParam theParam = theReader.getDefaultReadParam();
+                theParam.setSourceSubsampling(theStep, theStep, 0, 0);
+
+                return theReader.read(0, theParam);
+            } finally {
+                theReader.dispose();
+            }
+        } finally {
+            theInput.close();
+        }
+    }
+}
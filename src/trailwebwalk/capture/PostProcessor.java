@@ -0,0 +1,319 @@
+package trailwebwalk.capture;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ *
+ * @author al
+ * Makes the derived images of stored frames - a thumbnail, a JPEG re-encode
+ * and a crop of the trail item's target - on a pool of threads (one per core)
+ * so that neither the walk nor the screenshot writer waits for the image work.
+ * Each frame is decoded once and everything wanted is made from that.
+ * When the pool's queue is full the frame is processed by the thread that
+ * submitted it (the screenshot writer), so a backlog slows the writer rather
+ * than growing without limit.
+ * @invariant - the Logger is a valid logger.
+ */
+public class PostProcessor {
+
+    private final int thumbnailWidth;
+    private final int jpegQuality;
+    private final boolean shouldCropTarget;
+    private final ThreadPoolExecutor theExecutor;
+    private final Logger theLogger;
+    private int submittedCount = 0;
+    private int completedCount = 0;
+    private int failedCount = 0;
+    private int maxQueueLength = 0;
+    private long totalMillis = 0;
+
+    /**
+     *
+     * @param thumbnailWidth - width of the thumbnails (0 for none).
+     * @param jpegQuality - quality (1-100) of the JPEG re-encode (0 for none).
+     * @param shouldCropTarget - whether to crop the trail item's target.
+     * @param newLogger - valid logger.
+     */
+    public PostProcessor(int thumbnailWidth,
+            int jpegQuality,
+            boolean shouldCropTarget,
+            Logger newLogger) {
+        this.thumbnailWidth = thumbnailWidth;
+        this.jpegQuality = Math.min(100, jpegQuality);
+        this.shouldCropTarget = shouldCropTarget;
+        theLogger = newLogger;
+
+        int theThreadCount = Runtime.getRuntime().availableProcessors();
+        theExecutor = new ThreadPoolExecutor(theThreadCount, theThreadCount,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(theThreadCount * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public boolean shouldCropTarget() {
+        return shouldCropTarget;
+    }
+
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    /**
+     *
+     * @param theImageBytes - encoded image.
+     * @param theWidth
+     * @return - the image scaled to the width as a PNG.
+     * @throws IOException - if the image can't be decoded.
+     */
+    public static byte[] scaleToPNG(byte[] theImageBytes,
+            int theWidth) throws IOException {
+        BufferedImage theImage = ImageIO.read(new ByteArrayInputStream(theImageBytes));
+
+        if (theImage == null) {
+            throw new IOException("Image could not be decoded");
+        }
+
+        int theHeight = Math.max(1, theImage.getHeight() * theWidth / theImage.getWidth());
+        ByteArrayOutputStream theOutput = new ByteArrayOutputStream();
+        ImageIO.write(scale(theImage, theWidth, theHeight), "png", theOutput);
+
+        return theOutput.toByteArray();
+    }
+
+    /**
+     * Queues the frame's derived images to be made.
+     * @param theFrame - frame with an image.
+     * @param theArchive - the run the frame is in (the images go in its
+     * derived directory).
+     */
+    public void submit(final Frame theFrame,
+            final FrameArchive theArchive) {
+        synchronized (this) {
+            ++submittedCount;
+            maxQueueLength = Math.max(maxQueueLength, theExecutor.getQueue().size());
+        }
+
+        theExecutor.execute(new Runnable() {
+
+            public void run() {
+                process(theFrame, theArchive);
+            }
+        });
+    }
+
+    /**
+     * Makes the images still queued and stops the threads.
+     * @param theTimeoutSeconds - how long to wait for the queue to empty.
+     */
+    public void shutdown(int theTimeoutSeconds) {
+        theExecutor.shutdown();
+
+        try {
+            if (!theExecutor.awaitTermination(theTimeoutSeconds, TimeUnit.SECONDS)) {
+                theLogger.log(Level.WARNING, "Post processing did not finish - {0} frames left",
+                        Integer.toString(theExecutor.shutdownNow().size()));
+            }
+        } catch (InterruptedException ex) {
+            theExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        theLogger.log(Level.INFO, "Post processing: {0}", this);
+    }
+
+    public int getQueueLength() {
+        return theExecutor.getQueue().size();
+    }
+
+    public synchronized int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+
+    public synchronized int getSubmittedCount() {
+        return submittedCount;
+    }
+
+    public synchronized int getCompletedCount() {
+        return completedCount;
+    }
+
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    public synchronized long getMeanMillis() {
+        if (completedCount == 0) {
+            return 0;
+        }
+
+        return totalMillis / completedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PostProcessor{" + "submitted=" + submittedCount
+                + ", completed=" + completedCount
+                + ", failed=" + failedCount
+                + ", queue=" + getQueueLength()
+                + ", maxQueue=" + maxQueueLength
+                + ", meanMs=" + getMeanMillis() + '}';
+    }
+
+    private void process(Frame theFrame,
+            FrameArchive theArchive) {
+        long theStartTime = System.currentTimeMillis();
+        boolean isDone = false;
+        File theOutputDir = theArchive.getDerivedDir();
+
+        try {
+            // the derived images are not expected to be bigger than the frame
+            if (!theArchive.makeRoomForDerived(theFrame.getImageBytes().length)) {
+                throw new IOException("Dump quota reached");
+            }
+
+            if (!theOutputDir.isDirectory() && !theOutputDir.mkdirs()) {
+                throw new IOException("Failed to create " + theOutputDir);
+            }
+
+            BufferedImage theImage = ImageIO.read(new ByteArrayInputStream(theFrame.getImageBytes()));
+
+            if (theImage == null) {
+                throw new IOException("Image could not be decoded");
+            }
+
+            String theName = Integer.toString(theFrame.getFrameNumber());
+
+            if (thumbnailWidth > 0) {
+                int theHeight = Math.max(1, theImage.getHeight() * thumbnailWidth / theImage.getWidth());
+                File theFile = new File(theOutputDir, "thumb" + theName + ".jpg");
+                writeJPEG(scale(theImage, thumbnailWidth, theHeight), theFile, 80);
+                theArchive.addDerived(theFile);
+            }
+
+            if (jpegQuality > 0) {
+                File theFile = new File(theOutputDir, "frame" + theName + ".jpg");
+                writeJPEG(theImage, theFile, jpegQuality);
+                theArchive.addDerived(theFile);
+            }
+
+            Rectangle theBounds = theFrame.getTargetBounds();
+
+            if (shouldCropTarget && theBounds != null) {
+                Rectangle theCrop = theBounds.intersection(
+                        new Rectangle(0, 0, theImage.getWidth(), theImage.getHeight()));
+
+                if (!theCrop.isEmpty()) {
+                    File theFile = new File(theOutputDir, "target" + theName + ".png");
+                    ImageIO.write(theImage.getSubimage(theCrop.x, theCrop.y, theCrop.width, theCrop.height),
+                            "png", theFile);
+                    theArchive.addDerived(theFile);
+                }
+            }
+
+            isDone = true;
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Post processing failed for " + theFrame, ex);
+        } finally {
+            synchronized (this) {
+                if (isDone) {
+                    ++completedCount;
+                    totalMillis += System.currentTimeMillis() - theStartTime;
+                } else {
+                    ++failedCount;
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return - the image scaled to the size (without alpha so it can be
+     * written as a JPEG).
+     */
+    private static BufferedImage scale(BufferedImage theImage,
+            int theWidth,
+            int theHeight) {
+        BufferedImage theResult = new BufferedImage(theWidth, theHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D theGraphics = theResult.createGraphics();
+        theGraphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        theGraphics.drawImage(theImage, 0, 0, theWidth, theHeight, null);
+        theGraphics.dispose();
+
+        return theResult;
+    }
+
+    /**
+     *
+     * @param theImageBytes - encoded image.
+     * @param theQuality - 1-100.
+     * @return - the image as a JPEG.
+     * @throws IOException - if the image can't be decoded.
+     */
+    public static byte[] encodeJPEG(byte[] theImageBytes,
+            int theQuality) throws IOException {
+        BufferedImage theImage = ImageIO.read(new ByteArrayInputStream(theImageBytes));
+
+        if (theImage == null) {
+            throw new IOException("Image could not be decoded");
+        }
+
+        ByteArrayOutputStream theOutput = new ByteArrayOutputStream();
+        writeJPEG(theImage, theOutput, theQuality);
+
+        return theOutput.toByteArray();
+    }
+
+    /**
+     *
+     * @param theImage
+     * @param theDestination - File or OutputStream.
+     * @param theQuality - 1-100.
+     * @throws IOException
+     */
+    private static void writeJPEG(BufferedImage theImage,
+            Object theDestination,
+            int theQuality) throws IOException {
+        if (theImage.getType() != BufferedImage.TYPE_INT_RGB) {
+            theImage = scale(theImage, theImage.getWidth(), theImage.getHeight());
+        }
+
+        Iterator<ImageWriter> theWriters = ImageIO.getImageWritersByFormatName("jpeg");
+
+        if (!theWriters.hasNext()) {
+            throw new IOException("No JPEG writer");
+        }
+
+        ImageWriter theWriter = theWriters.next();
+        ImageOutputStream theOutput = ImageIO.createImageOutputStream(theDestination);
+
+        try {
+            ImageWriteParam theParam = theWriter.getDefaultWriteParam();
+            theParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            theParam.setCompressionQuality(theQuality / 100.0f);
+            theWriter.setOutput(theOutput);
+            theWriter.write(null, new IIOImage(theImage, null, null), theParam);
+        } finally {
+            theWriter.dispose();
+            theOutput.close();
+        }
+    }
+}
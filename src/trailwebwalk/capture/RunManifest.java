@@ -0,0 +1,220 @@
+package trailwebwalk.capture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ *
+ * @author al
+ * The list of screenshot runs kept in the dump directory (manifest.properties)
+ * so that a new run can be numbered without probing the directory.
+ * Each run has a segment file (the frames appended one after another) and an
+ * index file (see IndexEntry).
+ * The manifest also records whether each run has been thinned (see
+ * DumpQuota). When each run was last viewed (extracted) is kept in a file of
+ * its own (viewed.properties) as it is written by FrameExtractor, a separate
+ * process, while a walker may be saving the manifest from its own copy.
+ * @invariant - nextRun is greater than all the runs in the manifest.
+ */
+public class RunManifest {
+
+    private static final String MANIFEST_FILE = "manifest.properties";
+    private static final String VIEWED_FILE = "viewed.properties";
+    private final File dumpDir;
+    private final Properties theManifest = new Properties();
+    private final Properties theViews = new Properties();
+    private long viewsModified = -1; // of the views file when last read
+    private long viewsLength = -1;
+
+    /**
+     *
+     * @param dumpDir - the directory (created if it does not exist).
+     * @throws IOException - if the manifest can't be read.
+     */
+    public RunManifest(File dumpDir) throws IOException {
+        this.dumpDir = dumpDir;
+
+        if (!dumpDir.isDirectory() && !dumpDir.mkdirs()) {
+            throw new IOException("Failed to create " + dumpDir);
+        }
+
+        load(new File(dumpDir, MANIFEST_FILE), theManifest);
+    }
+
+    private static void load(File theFile,
+            Properties theProperties) throws IOException {
+        if (theFile.exists()) {
+            FileInputStream is = new FileInputStream(theFile);
+
+            try {
+                theProperties.load(is);
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    /**
+     * Allocates the number for a new run and records it in the manifest.
+     * @return - the run number.
+     * @throws IOException - if the manifest can't be written.
+     */
+    public synchronized int startRun() throws IOException {
+        int theRun = Integer.parseInt(theManifest.getProperty("nextRun", "1"));
+        theManifest.setProperty("nextRun", Integer.toString(theRun + 1));
+        theManifest.setProperty("run." + theRun + ".started", Long.toString(System.currentTimeMillis()));
+        save();
+
+        return theRun;
+    }
+
+    /**
+     *
+     * @return - the runs in the manifest (oldest first).
+     */
+    public synchronized List<Integer> getRuns() {
+        List<Integer> theRuns = new ArrayList<Integer>();
+        int nextRun = Integer.parseInt(theManifest.getProperty("nextRun", "1"));
+
+        for (int theRun = 1; theRun < nextRun; ++theRun) {
+            if (theManifest.getProperty("run." + theRun + ".started") != null) {
+                theRuns.add(theRun);
+            }
+        }
+
+        return theRuns;
+    }
+
+    /**
+     * Deletes the run's files and removes it from the manifest.
+     * @param theRun
+     * @throws IOException - if the manifest can't be written.
+     */
+    public synchronized void deleteRun(int theRun) throws IOException {
+        getSegmentFile(theRun).delete();
+        getIndexFile(theRun).delete();
+        File[] theDerivedFiles = getDerivedDir(theRun).listFiles();
+
+        if (theDerivedFiles != null) {
+            for (File theFile : theDerivedFiles) {
+                theFile.delete();
+            }
+        }
+
+        getDerivedDir(theRun).delete();
+        // views of it are left in the views file (run numbers are not reused)
+        theManifest.remove("run." + theRun + ".started");
+        theManifest.remove("run." + theRun + ".viewed");
+        theManifest.remove("run." + theRun + ".thinned");
+        save();
+    }
+
+    /**
+     * Records that the run has been viewed now.
+     * @param theRun
+     * @throws IOException - if the manifest can't be written.
+     */
+    public synchronized void markViewed(int theRun) throws IOException {
+        File theFile = new File(dumpDir, VIEWED_FILE);
+        // from the file, not the copy here - other extractors may have added to it
+        Properties theLatestViews = new Properties();
+        load(theFile, theLatestViews);
+        theLatestViews.setProperty("run." + theRun + ".viewed", Long.toString(System.currentTimeMillis()));
+        FileOutputStream os = new FileOutputStream(theFile);
+
+        try {
+            theLatestViews.store(os, "Screenshot run views");
+        } finally {
+            os.close();
+        }
+
+        viewsModified = -1;
+    }
+
+    /**
+     *
+     * @param theRun
+     * @return - when the run was last viewed (or started if it has not been
+     * viewed).
+     */
+    public synchronized long getLastUsed(int theRun) {
+        refreshViews();
+        // manifests from before the views file have the views in them
+        String theTime = theViews.getProperty("run." + theRun + ".viewed",
+                theManifest.getProperty("run." + theRun + ".viewed",
+                theManifest.getProperty("run." + theRun + ".started", "0")));
+
+        return Long.parseLong(theTime);
+    }
+
+    /**
+     * Rereads the views file if it has changed since it was last read.
+     */
+    private void refreshViews() {
+        File theFile = new File(dumpDir, VIEWED_FILE);
+        long theModified = theFile.lastModified();
+        long theLength = theFile.length();
+
+        // the length too as the time may only be to the second
+        if (theModified == viewsModified && theLength == viewsLength) {
+            return;
+        }
+
+        theViews.clear();
+
+        try {
+            load(theFile, theViews);
+            viewsModified = theModified;
+            viewsLength = theLength;
+        } catch (IOException ex) {
+            // as if not viewed - read again next time
+            theViews.clear();
+        }
+    }
+
+    public synchronized void markThinned(int theRun) throws IOException {
+        theManifest.setProperty("run." + theRun + ".thinned", "true");
+        save();
+    }
+
+    public synchronized boolean isThinned(int theRun) {
+        return theManifest.getProperty("run." + theRun + ".thinned") != null;
+    }
+
+    public File getDumpDir() {
+        return dumpDir;
+    }
+
+    public File getSegmentFile(int theRun) {
+        return new File(dumpDir, "run" + theRun + ".seg");
+    }
+
+    public File getIndexFile(int theRun) {
+        return new File(dumpDir, "run" + theRun + ".idx");
+    }
+
+    /**
+     *
+     * @param theRun
+     * @return - the directory for images made from the run's frames
+     * (thumbnails etc.).
+     */
+    public File getDerivedDir(int theRun) {
+        return new File(dumpDir, "run" + theRun + ".post");
+    }
+
+    private void save() throws IOException {
+        FileOutputStream os = new FileOutputStream(new File(dumpDir, MANIFEST_FILE));
+
+        try {
+            theManifest.store(os, "Screenshot runs");
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package trailwebwalk.capture;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author al
+ * Writes captured frames to the run's archive on its own thread so that the
+ * walk is not held up by disk writes.
+ * Frames are passed through a bounded queue; when it is full the backpressure
+ * policy decides whether the walk waits, the oldest frame is dropped or the
+ * new frame is skipped.
+ * If a deduplicator is set, frames that look the same as a recent one are
+ * stored as a reference to it rather than as a new image.
+ * If a fingerprint store is set, each page's fingerprint is recorded in it
+ * with where its image is (and the store is saved when the writer closes).
+ * If a post processor is set, each new image stored is handed to it.
+ * To lighten the load the deduplication can be turned off and frames can be
+ * stored as thumbnails only (without post processing) while the walk is
+ * behind.
+ * @invariant - the Logger is a valid logger.
+ * @invariant - frames are written in the order they were submitted.
+ */
+public class ScreenshotWriter implements Runnable {
+
+    private static final Frame END_OF_FRAMES = new Frame(-1, -1, "", new byte[0]);
+    private final BlockingQueue<Frame> theQueue;
+    private final BackpressurePolicy thePolicy;
+    private final FrameArchive theArchive;
+    private final Logger theLogger;
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+    private volatile int droppedCount = 0;
+    private volatile int writtenCount = 0;
+    private volatile int duplicateCount = 0;
+    private final FrameDeduplicator theDeduplicator;
+    private final FingerprintStore theFingerprints;
+    private final PostProcessor thePostProcessor;
+    private volatile int linkedCount = 0;
+    private volatile boolean isDedupOn = true;
+    private volatile int thumbnailOnlyWidth = 0;
+
+    /**
+     *
+     * @param theArchive - the run that the frames are appended to.
+     * @param thePolicy - what to do when the queue is full.
+     * @param queueSize - the number of frames that can wait to be written.
+     * @param theDeduplicator - null if all frames are to be stored.
+     * @param theFingerprints - null if fingerprints are not kept.
+     * @param thePostProcessor - null if no images are made from the frames.
+     * @param newLogger - valid logger.
+     */
+    public ScreenshotWriter(FrameArchive theArchive,
+            BackpressurePolicy thePolicy,
+            int queueSize,
+            FrameDeduplicator theDeduplicator,
+            FingerprintStore theFingerprints,
+            PostProcessor thePostProcessor,
+            Logger newLogger) {
+        this.thePostProcessor = thePostProcessor;
+        this.theArchive = theArchive;
+        this.theFingerprints = theFingerprints;
+        this.theDeduplicator = theDeduplicator;
+        this.thePolicy = thePolicy;
+        this.theQueue = new ArrayBlockingQueue<Frame>(Math.max(1, queueSize));
+        theLogger = newLogger;
+        writerThread = new Thread(this, "ScreenshotWriter");
+        writerThread.start();
+    }
+
+    /**
+     * Queues a frame to be written.
+     * @param theFrame
+     * @return - whether the frame was queued (false if it was skipped).
+     * @precon - not closed.
+     * @postcon - as per invariant/return value.
+     */
+    public boolean submit(Frame theFrame) {
+        if (isClosed) {
+            return false;
+        }
+
+        switch (thePolicy) {
+            case block:
+                try {
+                    theQueue.put(theFrame);
+                    return true;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    ++droppedCount;
+                    return false;
+                }
+            case dropOldest:
+                while (!theQueue.offer(theFrame)) {
+                    if (theQueue.poll() != null) {
+                        ++droppedCount;
+                        theLogger.log(Level.INFO, "Screenshot queue full - dropped oldest frame");
+                    }
+                }
+                return true;
+            default:
+                if (theQueue.offer(theFrame)) {
+                    return true;
+                }
+
+                ++droppedCount;
+                theLogger.log(Level.INFO, "Screenshot queue full - skipped frame {0}",
+                        Integer.toString(theFrame.getFrameNumber()));
+                return false;
+        }
+    }
+
+    /**
+     * Writes the frames still queued and stops the writer thread.
+     * @postcon - all submitted frames (not dropped) have been written.
+     */
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+
+        try {
+            theQueue.put(END_OF_FRAMES);
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     *
+     * @return - the number of frames dropped or skipped because the queue was
+     * full.
+     */
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     *
+     * @return - the number of frames written.
+     */
+    public int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     *
+     * @return - the number of frames stored as duplicates.
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     *
+     * @param isDedupOn - whether frames are compared with recent ones (if
+     * there is a deduplicator).
+     */
+    public void setDedupOn(boolean isDedupOn) {
+        this.isDedupOn = isDedupOn;
+    }
+
+    /**
+     *
+     * @param theWidth - width of the thumbnail stored instead of each frame
+     * (0 to store the frames).
+     */
+    public void setThumbnailOnly(int theWidth) {
+        thumbnailOnlyWidth = theWidth;
+    }
+
+    /**
+     *
+     * @return - the number of frames linked to an earlier run.
+     */
+    public int getLinkedCount() {
+        return linkedCount;
+    }
+
+    /**
+     *
+     * @return - the number of frames waiting to be written.
+     */
+    public int getQueueLength() {
+        return theQueue.size();
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                Frame theFrame = theQueue.take();
+
+                if (theFrame == END_OF_FRAMES) {
+                    break;
+                }
+
+                try {
+                    write(theFrame);
+                    ++writtenCount;
+                } catch (IOException ex) {
+                    theLogger.log(Level.WARNING, "Failed to write " + theFrame, ex);
+                } catch (RuntimeException ex) {
+                    // e.g. an image that can't be decoded - the writer must outlive it
+                    theLogger.log(Level.WARNING, "Failed to write " + theFrame, ex);
+                }
+            }
+        } catch (InterruptedException ex) {
+            theLogger.log(Level.INFO, "Screenshot writer interrupted");
+        } finally {
+            try {
+                theArchive.close();
+            } catch (IOException ex) {
+                theLogger.log(Level.WARNING, null, ex);
+            }
+
+            if (theFingerprints != null) {
+                try {
+                    theFingerprints.save();
+                } catch (IOException ex) {
+                    theLogger.log(Level.WARNING, "Failed to save fingerprints", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the frame to the archive (as a duplicate if it looks the same
+     * as a recent frame).
+     * @param theFrame
+     * @throws IOException
+     */
+    private void write(Frame theFrame) throws IOException {
+        if (theFrame.isLinked()) {
+            theArchive.appendLinked(theFrame);
+            ++linkedCount;
+            remember(theFrame, theFrame.getFingerprint());
+            return;
+        }
+
+        int theThumbnailWidth = thumbnailOnlyWidth;
+
+        if (theThumbnailWidth > 0) {
+            // not remembered against the fingerprint - the next run should capture it in full
+            Frame theThumbnail = theFrame.withImageBytes(
+                    PostProcessor.scaleToPNG(theFrame.getImageBytes(), theThumbnailWidth));
+            theArchive.append(theThumbnail);
+            return;
+        }
+
+        if (theDeduplicator == null || !isDedupOn) {
+            remember(theFrame, theArchive.append(theFrame));
+            postProcess(theFrame);
+            return;
+        }
+
+        long theHash = 0;
+        boolean isHashed = false;
+
+        try {
+            theHash = PerceptualHash.hash(theFrame.getImageBytes());
+            isHashed = true;
+        } catch (IOException ex) {
+            theLogger.log(Level.INFO, "Failed to hash " + theFrame, ex);
+        }
+
+        IndexEntry theMatch = isHashed ? theDeduplicator.findMatch(theHash, theFrame.getURL()) : null;
+
+        if (theMatch != null) {
+            // of the same page, so its location is right for the page's fingerprint
+            remember(theFrame, theArchive.appendDuplicate(theFrame, theMatch));
+            ++duplicateCount;
+        } else {
+            IndexEntry theEntry = theArchive.append(theFrame);
+            remember(theFrame, theEntry);
+            postProcess(theFrame);
+
+            if (isHashed) {
+                theDeduplicator.remember(theHash, theEntry);
+            }
+        }
+    }
+
+    private void postProcess(Frame theFrame) {
+        if (thePostProcessor != null) {
+            thePostProcessor.submit(theFrame, theArchive);
+        }
+    }
+
+    /**
+     * Records where the frame's image is against its page's fingerprint.
+     * @param theFrame
+     * @param theEntry - the frame's entry in this run.
+     */
+    private void remember(Frame theFrame,
+            IndexEntry theEntry) {
+        PageFingerprint theFingerprint = theFrame.getFingerprint();
+
+        if (theFingerprints != null && theFingerprint != null) {
+            theFingerprints.put(theFrame.getURL(), theFingerprint.at(
+                    theEntry.getImageRun(theArchive.getRunNumber()),
+                    theEntry.getOffset(), theEntry.getLength()));
+        }
+    }
+
+    /**
+     * As above for a linked frame (the fingerprint already has the location).
+     */
+    private void remember(Frame theFrame,
+            PageFingerprint theFingerprint) {
+        if (theFingerprints != null) {
+            theFingerprints.put(theFrame.getURL(), theFingerprint);
+        }
+    }
+}
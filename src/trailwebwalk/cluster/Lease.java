@@ -0,0 +1,99 @@
+package trailwebwalk.cluster;
+
+/**
+ *
+ * @author al
+ * A range of trail positions handed to a worker for a while. The worker
+ * keeps the lease by sending heartbeats with how far it has got; if they stop
+ * the range from there on is handed out again. The end can be brought in by
+ * the coordinator (the rest given to an idle worker).
+ * Guarded by the coordinator's lock.
+ * @invariant - first <= pos <= end.
+ */
+public class Lease {
+
+    private final int leaseId;
+    private final String workerId;
+    private final int first;
+    private int end;
+    private int pos;
+    private long expiresAt;
+
+    /**
+     *
+     * @param leaseId
+     * @param workerId - the worker holding the lease.
+     * @param first - first trail position of the range.
+     * @param end - the position after the last in the range.
+     * @param expiresAt - when the lease runs out without a heartbeat.
+     */
+    public Lease(int leaseId,
+            String workerId,
+            int first,
+            int end,
+            long expiresAt) {
+        this.leaseId = leaseId;
+        this.workerId = workerId;
+        this.first = first;
+        this.end = end;
+        this.pos = first;
+        this.expiresAt = expiresAt;
+    }
+
+    public int getLeaseId() {
+        return leaseId;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     *
+     * @param newEnd - new end (not before the current position).
+     */
+    public void setEnd(int newEnd) {
+        end = Math.max(pos, newEnd);
+    }
+
+    /**
+     *
+     * @return - the position the worker has got to (pages before it are
+     * done).
+     */
+    public int getPos() {
+        return pos;
+    }
+
+    /**
+     * Records a heartbeat.
+     * @param newPos - the position the worker has got to.
+     * @param newExpiresAt - when the lease now runs out.
+     */
+    public void renew(int newPos,
+            long newExpiresAt) {
+        pos = Math.max(pos, Math.min(newPos, end));
+        expiresAt = newExpiresAt;
+    }
+
+    public boolean hasExpired(long theTime) {
+        return theTime > expiresAt;
+    }
+
+    public int getRemaining() {
+        return end - pos;
+    }
+
+    @Override
+    public String toString() {
+        return "Lease{" + leaseId + " " + workerId + " [" + first + ", " + end + ") at " + pos + '}';
+    }
+}
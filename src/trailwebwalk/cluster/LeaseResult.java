@@ -0,0 +1,89 @@
+package trailwebwalk.cluster;
+
+/**
+ *
+ * @author al
+ * What a worker reported at the end of a lease - how far it got, how it
+ * ended, its step counts and where its screenshots are.
+ */
+public class LeaseResult {
+
+    /**
+     * How the walk of a range ended.
+     */
+    public enum RangeStatus {
+
+        done, // walked to the end of the range
+        complete, // walked to the end of the trail
+        failed, // too many failed steps
+        stopped // error or stopped
+    };
+    private final String workerId;
+    private final int first;
+    private final int end;
+    private final RangeStatus theStatus;
+    private final int stepCount;
+    private final int failedStepCount;
+    private final String dumpDir;
+
+    /**
+     *
+     * @param workerId
+     * @param first - first position of the range walked.
+     * @param end - the position the walk got to.
+     * @param theStatus
+     * @param stepCount - steps taken in the range.
+     * @param failedStepCount - steps that failed in the range.
+     * @param dumpDir - the worker's screenshot directory.
+     */
+    public LeaseResult(String workerId,
+            int first,
+            int end,
+            RangeStatus theStatus,
+            int stepCount,
+            int failedStepCount,
+            String dumpDir) {
+        this.workerId = workerId;
+        this.first = first;
+        this.end = end;
+        this.theStatus = theStatus;
+        this.stepCount = stepCount;
+        this.failedStepCount = failedStepCount;
+        this.dumpDir = dumpDir;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public RangeStatus getStatus() {
+        return theStatus;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    public int getFailedStepCount() {
+        return failedStepCount;
+    }
+
+    public String getDumpDir() {
+        return dumpDir;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + first + ", " + end + ") " + theStatus + " by " + workerId
+                + ", steps " + stepCount + ", failed " + failedStepCount
+                + ", screenshots in " + dumpDir;
+    }
+}
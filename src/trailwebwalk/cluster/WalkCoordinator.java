@@ -0,0 +1,497 @@
+package trailwebwalk.cluster;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.BatchWalk;
+import trailwebwalk.TrailCache;
+
+/**
+ *
+ * @author al
+ * Shares the walk of a long trail between worker processes (Main --worker)
+ * which may be on other machines. The trail is cut into ranges of positions
+ * which are leased to the workers over a line based socket protocol:
+ *   HELLO workerId trailSize      -> OK | ERROR reason
+ *   LEASE                         -> RANGE leaseId first end leaseMillis |
+ *                                    WAIT millis | DONE
+ *   HEARTBEAT leaseId pos         -> END end | REVOKED
+ *   RESULT leaseId pos status steps failed dumpDir -> OK
+ * A lease that is not renewed by a heartbeat (or whose worker goes away) is
+ * handed out again from where the worker had got to. When there are no
+ * ranges left an idle worker is given the back half of the range with the
+ * most left to walk. The holder sends a heartbeat before each page, so it
+ * learns its new end before the next page; the split is made a few positions
+ * past the position it last reported so that it can't already be past it.
+ * The results are gathered into cluster-results.properties in the dump
+ * directory.
+ * @invariant - the Logger is a valid logger.
+ * @invariant - every position is in a pending range, a lease or a result.
+ */
+public class WalkCoordinator {
+
+    static final String HELLO = "HELLO";
+    static final String LEASE = "LEASE";
+    static final String HEARTBEAT = "HEARTBEAT";
+    static final String RESULT = "RESULT";
+    static final String OK = "OK";
+    static final String ERROR = "ERROR";
+    static final String RANGE = "RANGE";
+    static final String WAIT = "WAIT";
+    static final String DONE = "DONE";
+    static final String END = "END";
+    static final String REVOKED = "REVOKED";
+    private static final long WAIT_MILLIS = 2000; // idle workers ask again after this
+    private static final int STEAL_MARGIN = 2; // positions the holder may have started since its heartbeat
+    private final int trailSize;
+    private final long leaseMillis;
+    private final int stealMin;
+    private final File dumpDir;
+    private final Logger theLogger;
+    private final LinkedList<int[]> pendingRanges = new LinkedList<int[]>();
+    private final Map<Integer, Lease> activeLeases = new LinkedHashMap<Integer, Lease>();
+    private final List<LeaseResult> theResults = new ArrayList<LeaseResult>();
+    private int nextLeaseId = 1;
+    private ServerSocket theServerSocket = null;
+    private final ExecutorService theExecutor = Executors.newCachedThreadPool();
+
+    /**
+     *
+     * @param trailSize - the number of positions in the trail.
+     * @param rangeSize - positions per range (ClusterRangeSize).
+     * @param leaseMillis - how long a lease lasts without a heartbeat.
+     * @param stealMin - the fewest positions handed to an idle worker.
+     * @param dumpDir - where the results are written.
+     * @param newLogger - valid logger.
+     */
+    public WalkCoordinator(int trailSize,
+            int rangeSize,
+            long leaseMillis,
+            int stealMin,
+            File dumpDir,
+            Logger newLogger) {
+        this.trailSize = trailSize;
+        this.leaseMillis = leaseMillis;
+        this.stealMin = Math.max(1, stealMin);
+        this.dumpDir = dumpDir;
+        theLogger = newLogger;
+        int theRangeSize = Math.max(1, rangeSize);
+
+        for (int theFirst = 0; theFirst < trailSize; theFirst += theRangeSize) {
+            pendingRanges.add(new int[]{theFirst, Math.min(trailSize, theFirst + theRangeSize)});
+        }
+    }
+
+    /**
+     * Coordinates the walk of the trail (TrailFileName) until every range is
+     * done (Main --coordinator).
+     * @param properties - ClusterBindAddress (default 127.0.0.1, set it to
+     * the address the workers reach when they are on other machines),
+     * ClusterPort, ClusterRangeSize, ClusterLeaseSeconds, ClusterStealMin and
+     * DumpDir (where the results go).
+     * @param theLogger - valid logger.
+     * @return - exit status as per BatchWalk.
+     * @throws IOException - if the port can't be listened on.
+     */
+    public static int coordinate(Properties properties,
+            Logger theLogger) throws IOException {
+        int theTrailSize = TrailCache.getTrail(properties.getProperty("TrailFileName", ""), theLogger).size();
+
+        if (theTrailSize == 0) {
+            System.out.println("No trail to walk");
+            return BatchWalk.EXIT_NO_TRAIL;
+        }
+
+        WalkCoordinator theCoordinator = new WalkCoordinator(theTrailSize,
+                Integer.parseInt(properties.getProperty("ClusterRangeSize", "50").trim()),
+                Long.parseLong(properties.getProperty("ClusterLeaseSeconds", "60").trim()) * 1000,
+                Integer.parseInt(properties.getProperty("ClusterStealMin", "4").trim()),
+                new File(properties.getProperty("DumpDir", "./dumpDir").trim()),
+                theLogger);
+        theCoordinator.start(properties.getProperty("ClusterBindAddress", "127.0.0.1").trim(),
+                Integer.parseInt(properties.getProperty("ClusterPort", "7070").trim()));
+
+        try {
+            theCoordinator.awaitCompletion();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            theCoordinator.stop();
+        }
+
+        int theResult = theCoordinator.isFinished() ? BatchWalk.EXIT_COMPLETE : BatchWalk.EXIT_STOPPED;
+
+        for (LeaseResult theRangeResult : theCoordinator.getResults()) {
+            System.out.println(theRangeResult);
+
+            if (theRangeResult.getStatus() == LeaseResult.RangeStatus.failed) {
+                theResult = Math.max(theResult, BatchWalk.EXIT_FAILED);
+            }
+        }
+
+        return theResult;
+    }
+
+    /**
+     * Starts listening for workers.
+     * @param theBindAddress - address to listen on (0.0.0.0 for all
+     * interfaces) - there is no authentication.
+     * @param thePort
+     * @throws IOException - if the port can't be listened on.
+     */
+    public void start(String theBindAddress,
+            int thePort) throws IOException {
+        theServerSocket = new ServerSocket(thePort, 0, InetAddress.getByName(theBindAddress));
+        theExecutor.execute(new Runnable() {
+
+            public void run() {
+                acceptWorkers();
+            }
+        });
+        theLogger.log(Level.INFO, "Coordinating {0} trail positions in {1} ranges on {2}:{3}",
+                new Object[]{Integer.toString(trailSize), Integer.toString(pendingRanges.size()),
+                    theBindAddress, Integer.toString(thePort)});
+    }
+
+    /**
+     * Waits until every range has been walked (or given up on).
+     * @throws InterruptedException
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+        while (!isFinished()) {
+            wait(1000);
+            expireLeases();
+        }
+    }
+
+    /**
+     * Stops listening (after giving idle workers time to hear they are done)
+     * and writes the results.
+     */
+    public void stop() {
+        try {
+            // workers waiting for a range ask again within WAIT_MILLIS
+            Thread.sleep(WAIT_MILLIS * 2);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (theServerSocket != null) {
+                theServerSocket.close();
+            }
+        } catch (IOException ex) {
+            theLogger.log(Level.INFO, null, ex);
+        }
+
+        theExecutor.shutdownNow();
+
+        try {
+            writeResults();
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Failed to write cluster results", ex);
+        }
+    }
+
+    /**
+     *
+     * @return - the results reported so far (in the order of the trail).
+     */
+    public synchronized List<LeaseResult> getResults() {
+        List<LeaseResult> theSorted = new ArrayList<LeaseResult>(theResults);
+        Collections.sort(theSorted, new Comparator<LeaseResult>() {
+
+            public int compare(LeaseResult o1, LeaseResult o2) {
+                return o1.getFirst() - o2.getFirst();
+            }
+        });
+
+        return theSorted;
+    }
+
+    public synchronized boolean isFinished() {
+        return pendingRanges.isEmpty() && activeLeases.isEmpty();
+    }
+
+    /**
+     *
+     * @param theWorkerId
+     * @return - the reply to a LEASE request.
+     */
+    synchronized String lease(String theWorkerId) {
+        expireLeases();
+        int[] theRange = pendingRanges.poll();
+
+        if (theRange == null) {
+            theRange = stealRange();
+        }
+
+        if (theRange == null) {
+            return isFinished() ? DONE : WAIT + " " + WAIT_MILLIS;
+        }
+
+        Lease theLease = new Lease(nextLeaseId++, theWorkerId, theRange[0], theRange[1],
+                System.currentTimeMillis() + leaseMillis);
+        activeLeases.put(theLease.getLeaseId(), theLease);
+        theLogger.log(Level.INFO, "Leased {0}", theLease);
+
+        return RANGE + " " + theLease.getLeaseId() + " " + theLease.getFirst() + " "
+                + theLease.getEnd() + " " + leaseMillis;
+    }
+
+    /**
+     *
+     * @return - the reply to a HEARTBEAT request.
+     */
+    synchronized String heartbeat(String theWorkerId,
+            int theLeaseId,
+            int thePos) {
+        Lease theLease = activeLeases.get(theLeaseId);
+
+        if (theLease == null || !theLease.getWorkerId().equals(theWorkerId)) {
+            return REVOKED;
+        }
+
+        theLease.renew(thePos, System.currentTimeMillis() + leaseMillis);
+
+        return END + " " + theLease.getEnd();
+    }
+
+    /**
+     * Records the result of a lease; what was not walked goes back to be
+     * leased again (less the failed position if the walk failed).
+     * @return - the reply to a RESULT request.
+     */
+    synchronized String result(String theWorkerId,
+            int theLeaseId,
+            int thePos,
+            LeaseResult.RangeStatus theStatus,
+            int theStepCount,
+            int theFailedCount,
+            String theDumpDir) {
+        Lease theLease = activeLeases.get(theLeaseId);
+
+        if (theLease == null || !theLease.getWorkerId().equals(theWorkerId)) {
+            theLogger.log(Level.INFO, "Ignored result for lost lease {0} from {1}",
+                    new Object[]{Integer.toString(theLeaseId), theWorkerId});
+            return OK;
+        }
+
+        activeLeases.remove(theLeaseId);
+        theLease.renew(thePos, 0);
+        int theEnd = theLease.getEnd();
+
+        if (theStatus == LeaseResult.RangeStatus.done || theStatus == LeaseResult.RangeStatus.complete) {
+            thePos = theEnd;
+        } else {
+            int theRetryPos = (theStatus == LeaseResult.RangeStatus.failed)
+                    ? theLease.getPos() + 1 : theLease.getPos();
+            thePos = theLease.getPos();
+
+            if (theRetryPos < theEnd) {
+                pendingRanges.addFirst(new int[]{theRetryPos, theEnd});
+            }
+        }
+
+        LeaseResult theResult = new LeaseResult(theWorkerId, theLease.getFirst(), thePos,
+                theStatus, theStepCount, theFailedCount, theDumpDir);
+        theResults.add(theResult);
+        theLogger.log(Level.INFO, "Result {0}", theResult);
+        notifyAll();
+
+        return OK;
+    }
+
+    /**
+     * Gives up the leases of a worker that has gone (their ranges are leased
+     * again from where it had got to).
+     * @param theWorkerId
+     */
+    synchronized void workerGone(String theWorkerId) {
+        Iterator<Lease> theIterator = activeLeases.values().iterator();
+
+        while (theIterator.hasNext()) {
+            Lease theLease = theIterator.next();
+
+            if (theLease.getWorkerId().equals(theWorkerId)) {
+                theIterator.remove();
+                requeue(theLease);
+            }
+        }
+    }
+
+    /**
+     * Hands the ranges of leases that have not been renewed out again.
+     */
+    private void expireLeases() {
+        long theTime = System.currentTimeMillis();
+        Iterator<Lease> theIterator = activeLeases.values().iterator();
+
+        while (theIterator.hasNext()) {
+            Lease theLease = theIterator.next();
+
+            if (theLease.hasExpired(theTime)) {
+                theLogger.log(Level.INFO, "Lease expired {0}", theLease);
+                theIterator.remove();
+                requeue(theLease);
+            }
+        }
+    }
+
+    private void requeue(Lease theLease) {
+        if (theLease.getRemaining() > 0) {
+            pendingRanges.addFirst(new int[]{theLease.getPos(), theLease.getEnd()});
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Takes the back half (after STEAL_MARGIN) of the lease with the most left
+     * to walk.
+     * @return - the range taken, null if no lease has enough left.
+     */
+    private int[] stealRange() {
+        Lease theStraggler = null;
+
+        for (Lease theLease : activeLeases.values()) {
+            if (theStraggler == null || theLease.getRemaining() > theStraggler.getRemaining()) {
+                theStraggler = theLease;
+            }
+        }
+
+        if (theStraggler == null || theStraggler.getRemaining() - STEAL_MARGIN < stealMin * 2) {
+            return null;
+        }
+
+        int theEnd = theStraggler.getEnd();
+        int theSplit = theStraggler.getPos() + STEAL_MARGIN
+                + (theStraggler.getRemaining() - STEAL_MARGIN) / 2;
+        theStraggler.setEnd(theSplit);
+        theLogger.log(Level.INFO, "Took [{0}, {1}) from {2}",
+                new Object[]{Integer.toString(theSplit), Integer.toString(theEnd), theStraggler});
+
+        return new int[]{theSplit, theEnd};
+    }
+
+    private void acceptWorkers() {
+        try {
+            while (true) {
+                final Socket theSocket = theServerSocket.accept();
+                theExecutor.execute(new Runnable() {
+
+                    public void run() {
+                        serveWorker(theSocket);
+                    }
+                });
+            }
+        } catch (IOException ex) {
+            // server socket closed
+        }
+    }
+
+    /**
+     * Answers one worker's requests until it goes away.
+     * @param theSocket
+     */
+    private void serveWorker(Socket theSocket) {
+        String theWorkerId = null;
+
+        try {
+            BufferedReader theReader = new BufferedReader(
+                    new InputStreamReader(theSocket.getInputStream(), "UTF-8"));
+            PrintWriter theWriter = new PrintWriter(
+                    new OutputStreamWriter(theSocket.getOutputStream(), "UTF-8"), true);
+            String theLine;
+
+            while ((theLine = theReader.readLine()) != null) {
+                String[] theWords = theLine.trim().split(" ", 7);
+                String theReply;
+
+                try {
+                    if (theWords[0].equals(HELLO)) {
+                        theWorkerId = theWords[1];
+                        int theWorkerTrailSize = Integer.parseInt(theWords[2]);
+                        theReply = (theWorkerTrailSize == trailSize) ? OK
+                                : ERROR + " trail has " + trailSize + " positions";
+                        theLogger.log(Level.INFO, "Worker {0} joined", theWorkerId);
+                    } else if (theWorkerId == null) {
+                        theReply = ERROR + " no HELLO";
+                    } else if (theWords[0].equals(LEASE)) {
+                        theReply = lease(theWorkerId);
+                    } else if (theWords[0].equals(HEARTBEAT)) {
+                        theReply = heartbeat(theWorkerId, Integer.parseInt(theWords[1]),
+                                Integer.parseInt(theWords[2]));
+                    } else if (theWords[0].equals(RESULT)) {
+                        theReply = result(theWorkerId, Integer.parseInt(theWords[1]),
+                                Integer.parseInt(theWords[2]),
+                                LeaseResult.RangeStatus.valueOf(theWords[3]),
+                                Integer.parseInt(theWords[4]), Integer.parseInt(theWords[5]),
+                                (theWords.length > 6) ? theWords[6] : "");
+                    } else {
+                        theReply = ERROR + " unknown request";
+                    }
+                } catch (RuntimeException ex) {
+                    // bad number, missing word or unknown status
+                    theReply = ERROR + " bad request";
+                }
+
+                theWriter.println(theReply);
+            }
+        } catch (IOException ex) {
+            theLogger.log(Level.INFO, "Worker " + theWorkerId + " connection lost", ex);
+        } finally {
+            if (theWorkerId != null) {
+                theLogger.log(Level.INFO, "Worker {0} gone", theWorkerId);
+                workerGone(theWorkerId);
+            }
+
+            try {
+                theSocket.close();
+            } catch (IOException ex) {
+                // already closed
+            }
+        }
+    }
+
+    private void writeResults() throws IOException {
+        Properties theProperties = new Properties();
+        int theIndex = 1;
+
+        for (LeaseResult theResult : getResults()) {
+            theProperties.setProperty("range." + theIndex++, theResult.toString());
+        }
+
+        if (!dumpDir.isDirectory() && !dumpDir.mkdirs()) {
+            throw new IOException("Failed to create " + dumpDir);
+        }
+
+        FileOutputStream os = new FileOutputStream(new File(dumpDir, "cluster-results.properties"));
+
+        try {
+            theProperties.store(os, "Trail ranges walked by the workers");
+        } finally {
+            os.close();
+        }
+    }
+}
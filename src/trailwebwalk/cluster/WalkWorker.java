@@ -0,0 +1,303 @@
+package trailwebwalk.cluster;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.BatchWalk;
+import trailwebwalk.WalkMetrics;
+import trailwebwalk.WebWalkController;
+import trailwebwalk.WebWalkRunner;
+import trailwebwalk.ui.NullDisplay;
+
+/**
+ *
+ * @author al
+ * Walks the ranges of the trail leased to it by a WalkCoordinator
+ * (Main --worker). Each range is walked by the worker's controller from its
+ * first position; a heartbeat is sent before each page (and on a timer while a
+ * page is slow) so that the lease is kept and the worker hears if the end of
+ * its range has been brought in before it walks past it.
+ * Screenshots go to a directory of the worker's own under DumpDir.
+ * The worker has the same trail file as the coordinator.
+ * @invariant - the Logger is a valid logger.
+ */
+public class WalkWorker {
+
+    private static final int SOCKET_TIMEOUT = 60000;
+    private final String workerId;
+    private final String theDumpDir;
+    private final WebWalkController theController;
+    private final Logger theLogger;
+    private final ScheduledExecutorService heartbeatExec = Executors.newSingleThreadScheduledExecutor();
+    private Socket theSocket = null;
+    private BufferedReader theReader = null;
+    private PrintWriter theWriter = null;
+    private volatile int rangeEnd = 0;
+    private volatile boolean isRevoked = false;
+
+    /**
+     *
+     * @param properties - as for a single walk plus ClusterWorkerId (defaults
+     * to the process name).
+     * @param shouldDwell - whether to wait SleepTime between pages.
+     * @param newLogger - valid logger.
+     */
+    public WalkWorker(Properties properties,
+            boolean shouldDwell,
+            Logger newLogger) {
+        theLogger = newLogger;
+        String theId = properties.getProperty("ClusterWorkerId", "").trim();
+
+        if (theId.isEmpty()) {
+            theId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+
+        // the id goes in the protocol and a directory name
+        workerId = theId.replaceAll("[^A-Za-z0-9._-]", "_");
+        theDumpDir = new File(properties.getProperty("DumpDir", "./dumpDir").trim(), workerId).getPath();
+        Properties theWorkerProperties = new Properties();
+        theWorkerProperties.putAll(properties);
+        theWorkerProperties.setProperty("DumpDir", theDumpDir);
+        String theProfileCacheDir = properties.getProperty("ProfileCacheDir", "").trim();
+
+        // other workers on the host have their own
+        if (!theProfileCacheDir.isEmpty()) {
+            theWorkerProperties.setProperty("ProfileCacheDir",
+                    new File(theProfileCacheDir, workerId).getPath());
+        }
+        theController = new WebWalkController(theWorkerProperties, theLogger);
+        NullDisplay theDisplay = new NullDisplay();
+        theController.setNotificationDisplay(theDisplay);
+        theController.setPlayPauseDisplay(theDisplay);
+        theController.setListItemSelector(theDisplay);
+        theController.setFullSpeed(!shouldDwell);
+    }
+
+    /**
+     * Walks ranges until the coordinator says there are none left.
+     * @param theHost - the coordinator.
+     * @param thePort
+     * @return - exit status as per BatchWalk.
+     */
+    public int work(String theHost,
+            int thePort) {
+        int theRangeCount = 0;
+
+        try {
+            theSocket = new Socket(theHost, thePort);
+            theSocket.setSoTimeout(SOCKET_TIMEOUT);
+            theReader = new BufferedReader(new InputStreamReader(theSocket.getInputStream(), "UTF-8"));
+            theWriter = new PrintWriter(new OutputStreamWriter(theSocket.getOutputStream(), "UTF-8"), true);
+            String theReply = request(WalkCoordinator.HELLO + " " + workerId + " "
+                    + theController.getTrailItems().size());
+
+            if (!theReply.equals(WalkCoordinator.OK)) {
+                System.out.println("Coordinator refused worker: " + theReply);
+                return BatchWalk.EXIT_STOPPED;
+            }
+
+            while (true) {
+                String[] theWords = request(WalkCoordinator.LEASE).split(" ");
+
+                if (theWords[0].equals(WalkCoordinator.DONE)) {
+                    break;
+                } else if (theWords[0].equals(WalkCoordinator.WAIT)) {
+                    Thread.sleep(Long.parseLong(theWords[1]));
+                } else if (theWords[0].equals(WalkCoordinator.RANGE)) {
+                    walkRange(Integer.parseInt(theWords[1]), Integer.parseInt(theWords[2]),
+                            Integer.parseInt(theWords[3]), Long.parseLong(theWords[4]));
+                    ++theRangeCount;
+                } else {
+                    theLogger.log(Level.WARNING, "Unexpected reply {0}", theWords[0]);
+                    return BatchWalk.EXIT_STOPPED;
+                }
+            }
+        } catch (InterruptedException ex) {
+            return BatchWalk.EXIT_STOPPED;
+        } catch (IOException ex) {
+            theLogger.log(Level.WARNING, "Lost the coordinator", ex);
+            return BatchWalk.EXIT_STOPPED;
+        } finally {
+            System.out.println("Worker " + workerId + " walked " + theRangeCount + " ranges - "
+                    + theController.getMetrics());
+            shutdown();
+        }
+
+        return BatchWalk.EXIT_COMPLETE;
+    }
+
+    /**
+     * Stops the walk, the heartbeats and the connection.
+     */
+    public void shutdown() {
+        heartbeatExec.shutdownNow();
+        theController.shutdown();
+
+        try {
+            if (theSocket != null) {
+                theSocket.close();
+            }
+        } catch (IOException ex) {
+            // already closed
+        }
+    }
+
+    /**
+     * Walks a leased range and reports how it went.
+     * @param theLeaseId
+     * @param theFirst - first position of the range.
+     * @param theEnd - the position after the last in the range.
+     * @param theLeaseMillis - how long the lease lasts without a heartbeat.
+     * @throws IOException - if the coordinator can't be reached.
+     */
+    private void walkRange(final int theLeaseId,
+            int theFirst,
+            int theEnd,
+            long theLeaseMillis) throws IOException {
+        theLogger.log(Level.INFO, "Walking [{0}, {1})",
+                new Object[]{Integer.toString(theFirst), Integer.toString(theEnd)});
+        rangeEnd = theEnd;
+        isRevoked = false;
+        WalkMetrics theMetrics = theController.getMetrics();
+        int theStepsBefore = theMetrics.getStepCount();
+        int theFailedBefore = theMetrics.getFailedStepCount();
+        long theHeartbeatMillis = Math.max(1000, theLeaseMillis / 3);
+        ScheduledFuture<?> theHeartbeat = heartbeatExec.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                sendHeartbeat(theLeaseId);
+            }
+        }, theHeartbeatMillis, theHeartbeatMillis, TimeUnit.MILLISECONDS);
+        boolean canCarryOn = true;
+
+        try {
+            theController.setCurrentTrailPos(theFirst);
+            theController.resume();
+
+            // a step at a time, reporting the position and hearing the end before each
+            while (canCarryOn && !isRevoked
+                    && theController.getCurrentTrailPos() < rangeEnd) {
+                sendHeartbeat(theLeaseId);
+
+                if (isRevoked || theController.getCurrentTrailPos() >= rangeEnd) {
+                    break;
+                }
+
+                canCarryOn = theController.walkSteps(1);
+            }
+        } finally {
+            theHeartbeat.cancel(false);
+            theController.stopTask();
+        }
+
+        if (isRevoked) {
+            theLogger.log(Level.INFO, "Lease {0} revoked", Integer.toString(theLeaseId));
+            return;
+        }
+
+        int thePos = theController.getCurrentTrailPos();
+        WebWalkRunner.WalkStatus theOutcome = theController.getLastOutcome();
+        LeaseResult.RangeStatus theStatus;
+
+        if (thePos >= rangeEnd) {
+            theStatus = LeaseResult.RangeStatus.done;
+        } else if (theOutcome == WebWalkRunner.WalkStatus.complete) {
+            theStatus = LeaseResult.RangeStatus.complete;
+        } else if (theOutcome == WebWalkRunner.WalkStatus.failedStep) {
+            theStatus = LeaseResult.RangeStatus.failed;
+        } else {
+            theStatus = LeaseResult.RangeStatus.stopped;
+        }
+
+        request(WalkCoordinator.RESULT + " " + theLeaseId + " " + thePos + " " + theStatus
+                + " " + (theMetrics.getStepCount() - theStepsBefore)
+                + " " + (theMetrics.getFailedStepCount() - theFailedBefore)
+                + " " + theDumpDir);
+    }
+
+    /**
+     * Renews the lease (before each page and on the heartbeat thread); stops
+     * the walk if the lease has gone.
+     * @param theLeaseId
+     */
+    private void sendHeartbeat(int theLeaseId) {
+        try {
+            String[] theWords = request(WalkCoordinator.HEARTBEAT + " " + theLeaseId + " "
+                    + theController.getCurrentTrailPos()).split(" ");
+
+            if (theWords[0].equals(WalkCoordinator.END)) {
+                rangeEnd = Integer.parseInt(theWords[1]);
+            } else {
+                isRevoked = true;
+                theController.pauseTask();
+            }
+        } catch (IOException ex) {
+            // the lease will run out and the range will be walked by another worker
+            theLogger.log(Level.WARNING, "Heartbeat failed", ex);
+            isRevoked = true;
+            theController.pauseTask();
+        }
+    }
+
+    /**
+     * Sends a request and waits for the reply (requests from the walk and the
+     * heartbeat thread take turns).
+     * @param theRequest
+     * @return - the reply.
+     * @throws IOException - if the coordinator can't be reached.
+     */
+    private synchronized String request(String theRequest) throws IOException {
+        theWriter.println(theRequest);
+        String theReply = theReader.readLine();
+
+        if (theReply == null) {
+            throw new IOException("Coordinator closed the connection");
+        }
+
+        return theReply;
+    }
+
+    /**
+     * Works for the coordinator (ClusterCoordinator host:port) with a new
+     * worker (Main --worker).
+     * @param properties
+     * @param theLogger - valid logger.
+     * @param shouldDwell - whether to wait SleepTime between pages.
+     * @return - exit status as per BatchWalk.
+     */
+    public static int work(Properties properties,
+            Logger theLogger,
+            boolean shouldDwell) {
+        String theAddress = properties.getProperty("ClusterCoordinator", "localhost:7070").trim();
+        int theColon = theAddress.lastIndexOf(':');
+        String theHost = (theColon < 0) ? theAddress : theAddress.substring(0, theColon);
+        int thePort = (theColon < 0) ? 7070 : Integer.parseInt(theAddress.substring(theColon + 1));
+        final WalkWorker theWorker = new WalkWorker(properties, shouldDwell, theLogger);
+        Thread theShutdownHook = new Thread() {
+
+            @Override
+            public void run() {
+                theWorker.shutdown();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(theShutdownHook);
+
+        try {
+            return theWorker.work(theHost, thePort);
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(theShutdownHook);
+        }
+    }
+}
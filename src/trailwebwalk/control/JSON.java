@@ -0,0 +1,58 @@
+package trailwebwalk.control;
+
+/**
+ *
+ * @author al
+ * The little JSON writing the control API needs.
+ */
+class JSON {
+
+    private JSON() {
+    }
+
+    /**
+     *
+     * @param theText
+     * @return - the text as a JSON string (quoted and escaped).
+     */
+    static String quote(String theText) {
+        if (theText == null) {
+            return "null";
+        }
+
+        StringBuilder theQuoted = new StringBuilder(theText.length() + 2);
+        theQuoted.append('"');
+
+        for (int i = 0; i < theText.length(); ++i) {
+            char theChar = theText.charAt(i);
+
+            switch (theChar) {
+                case '"':
+                    theQuoted.append("\\\"");
+                    break;
+                case '\\':
+                    theQuoted.append("\\\\");
+                    break;
+                case '\n':
+                    theQuoted.append("\\n");
+                    break;
+                case '\r':
+                    theQuoted.append("\\r");
+                    break;
+                case '\t':
+                    theQuoted.append("\\t");
+                    break;
+                default:
+                    if (theChar < 0x20) {
+                        theQuoted.append(String.format("\\u%04x", (int) theChar));
+                    } else {
+                        theQuoted.append(theChar);
+                    }
+            }
+        }
+
+        theQuoted.append('"');
+
+        return theQuoted.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package trailwebwalk.control;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.TrailItem;
+import trailwebwalk.WalkMetrics;
+import trailwebwalk.WalkState;
+import trailwebwalk.WebWalkController;
+import trailwebwalk.WebWalkRunner;
+import trailwebwalk.ui.ListItemSelector;
+import trailwebwalk.ui.PlayPauseDisplay;
+import trailwebwalk.ui.WalkStatusDisplay;
+
+/**
+ *
+ * @author al
+ * A walker driven through the WalkControlServer rather than the Swing UI.
+ * It is the display of its controller (so it sees the status, position and
+ * play/pause changes) and counts the changes so that clients can wait for the
+ * next one. Play starts the walk in the controller's walk session as the UI
+ * does; stepTo (which waits for the browser) is run on the executor it is
+ * given so that the request is answered straight away.
+ * @invariant - the Logger is a valid logger.
+ * @invariant - the version goes up whenever anything reported changes.
+ */
+public class RemoteWalker implements WalkStatusDisplay, PlayPauseDisplay, ListItemSelector {
+
+    private final String theName;
+    private final String theTrailName;
+    private final WebWalkController theController;
+    private final Logger theLogger;
+    private String theStatusText = "";
+    private long theVersion = 0;
+    private Runnable theChangeListener = null;
+
+    /**
+     *
+     * @param theName - name used in the API.
+     * @param theTrailName - the trail file.
+     * @param theController - controller not yet started.
+     * @param newLogger - valid logger.
+     */
+    public RemoteWalker(String theName,
+            String theTrailName,
+            WebWalkController theController,
+            Logger newLogger) {
+        this.theName = theName;
+        this.theTrailName = theTrailName;
+        this.theController = theController;
+        theLogger = newLogger;
+        theController.setNotificationDisplay(this);
+        theController.setPlayPauseDisplay(this);
+        theController.setListItemSelector(this);
+    }
+
+    /**
+     *
+     * @param newChangeListener - called (on the thread making the change)
+     * after each change.
+     */
+    public synchronized void setChangeListener(Runnable newChangeListener) {
+        theChangeListener = newChangeListener;
+    }
+
+    /**
+     * Starts the walk (starting the browser if need be) unless it is walking.
+     */
+    public void play() {
+        theController.play();
+        changed();
+    }
+
+    public void pause() {
+        theController.pauseTask();
+        changed();
+    }
+
+    /**
+     * Stops the walk and gives up its browser (on the executor).
+     * @param theExecutor - runs the stop.
+     */
+    public void stop(ExecutorService theExecutor) {
+        theExecutor.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    theController.stopTask();
+                } catch (RuntimeException ex) {
+                    theLogger.log(Level.WARNING, "stop failed", ex);
+                }
+
+                changed();
+            }
+        });
+    }
+
+    /**
+     * Goes to the trail position (on the executor).
+     * @param thePos
+     * @param theExecutor - runs the step.
+     */
+    public void stepTo(final int thePos,
+            ExecutorService theExecutor) {
+        theExecutor.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    theController.pauseTask();
+                    startIfNeeded();
+                    theController.stepTo(thePos);
+                } catch (RuntimeException ex) {
+                    theLogger.log(Level.WARNING, "stepTo failed", ex);
+                }
+
+                changed();
+            }
+        });
+    }
+
+    public boolean isPlaying() {
+        return theController.isWalking();
+    }
+
+    public String getName() {
+        return theName;
+    }
+
+    public WebWalkController getController() {
+        return theController;
+    }
+
+    public synchronized long getVersion() {
+        return theVersion;
+    }
+
+    /**
+     *
+     * @return - the status as JSON.
+     */
+    public String getStatusJSON() {
+        long theCurrentVersion;
+        String theCurrentText;
+
+        // not holding the lock while asking the controller (which calls back)
+        synchronized (this) {
+            theCurrentVersion = theVersion;
+            theCurrentText = theStatusText;
+        }
+
+        List<TrailItem> theTrail = theController.getTrailItems();
+        WebWalkRunner.WalkStatus theOutcome = theController.getLastOutcome();
+
+        return "{\"name\":" + JSON.quote(theName)
+                + ",\"trail\":" + JSON.quote(theTrailName)
+                + ",\"version\":" + theCurrentVersion
+                + ",\"playing\":" + isPlaying()
+                + ",\"started\":" + theController.isStarted()
+                + ",\"status\":" + JSON.quote(theCurrentText)
+                + ",\"outcome\":" + ((theOutcome == null) ? "null" : JSON.quote(theOutcome.toString()))
+                + "," + getPositionFields(theTrail) + "}";
+    }
+
+    /**
+     *
+     * @return - the trail position as JSON.
+     */
+    public String getPositionJSON() {
+        return "{\"name\":" + JSON.quote(theName)
+                + "," + getPositionFields(theController.getTrailItems()) + "}";
+    }
+
+    /**
+     *
+     * @return - the step measurements as JSON.
+     */
+    public String getMetricsJSON() {
+        WalkMetrics theMetrics = theController.getMetrics();
+
+        return "{\"name\":" + JSON.quote(theName)
+                + ",\"preset\":" + JSON.quote(theMetrics.getPresetName())
+                + ",\"steps\":" + theMetrics.getStepCount()
+                + ",\"failed\":" + theMetrics.getFailedStepCount()
+                + ",\"meanLoadMs\":" + theMetrics.getMeanLoadMillis()
+                + ",\"maxLoadMs\":" + theMetrics.getMaxLoadMillis()
+                + ",\"lastLoadMs\":" + theMetrics.getLastLoadMillis()
+                + ",\"maxBrowserKB\":" + theMetrics.getMaxBrowserKB()
+                + ",\"shedLevel\":" + JSON.quote(theMetrics.getShedLevel().toString())
+                + ",\"shedChanges\":" + theMetrics.getShedChangeCount() + "}";
+    }
+
+    private String getPositionFields(List<TrailItem> theTrail) {
+        // one snapshot so the fields agree with each other
+        WalkState theState = theController.getWalkState();
+        int thePos = theState.getTrailPos();
+        String theURL = (thePos < theTrail.size()) ? theTrail.get(thePos).getURL().toString() : "";
+
+        return "\"position\":" + thePos
+                + ",\"size\":" + theState.getTrailSize()
+                + ",\"url\":" + JSON.quote(theURL)
+                + ",\"walkStatus\":" + JSON.quote(theState.getStatus().toString())
+                + ",\"failures\":" + theState.getFailureCount();
+    }
+
+    public synchronized String getText() {
+        return theStatusText;
+    }
+
+    public void setText(String newText) {
+        synchronized (this) {
+            theStatusText = newText;
+        }
+
+        changed();
+    }
+
+    public void setToPlay() {
+        changed();
+    }
+
+    public void selectItem(int itemNo) {
+        changed();
+    }
+
+    private void startIfNeeded() {
+        if (!theController.isStarted()) {
+            theController.resume();
+        }
+    }
+
+    private void changed() {
+        Runnable theListener;
+
+        synchronized (this) {
+            ++theVersion;
+            theListener = theChangeListener;
+        }
+
+        if (theListener != null) {
+            theListener.run();
+        }
+    }
+}
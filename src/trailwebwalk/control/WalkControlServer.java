@@ -0,0 +1,370 @@
+package trailwebwalk.control;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.WalkSupervisor;
+import trailwebwalk.WebWalkController;
+
+/**
+ *
+ * @author al
+ * HTTP/JSON API for driving walkers without the Swing UI:
+ *   GET  /walkers                      - the status of all the walkers.
+ *   GET  /walkers/{name}/status        - ?since=version&wait=seconds waits
+ *                                        for a change after that version.
+ *   GET  /walkers/{name}/position
+ *   GET  /walkers/{name}/metrics
+ *   POST /walkers/{name}/play | pause | stop
+ *   POST /walkers/{name}/stepTo?pos=N
+ * Requests are served by a few threads (ControlThreads). A waiting status
+ * request does not keep a thread - it is put aside and answered when the
+ * walker changes or the wait is up. stepTo (which waits for the page)
+ * and stop (which waits for the browser to quit) are run on a separate pool
+ * of the same size and answered straight away.
+ * @invariant - the Logger is a valid logger.
+ */
+public class WalkControlServer {
+
+    private static final long POLL_CHECK_MILLIS = 500;
+    private final Map<String, RemoteWalker> theWalkers = new LinkedHashMap<String, RemoteWalker>();
+    private final List<PendingPoll> thePolls = new ArrayList<PendingPoll>();
+    private final long maxWaitMillis;
+    private final Logger theLogger;
+    private final HttpServer theServer;
+    private final ExecutorService theExecutor;
+    private final ExecutorService commandExec;
+    private final ScheduledExecutorService pollExec;
+
+    /**
+     * A status request waiting for a change.
+     */
+    private static class PendingPoll {
+
+        private final HttpExchange theExchange;
+        private final RemoteWalker theWalker;
+        private final long theSince;
+        private final long theDeadline;
+
+        PendingPoll(HttpExchange theExchange,
+                RemoteWalker theWalker,
+                long theSince,
+                long theDeadline) {
+            this.theExchange = theExchange;
+            this.theWalker = theWalker;
+            this.theSince = theSince;
+            this.theDeadline = theDeadline;
+        }
+    }
+
+    /**
+     *
+     * @param theBindAddress - address to listen on (e.g. 127.0.0.1 for this
+     * machine only, 0.0.0.0 for all interfaces) - there is no authentication.
+     * @param thePort - port to listen on.
+     * @param theWalkerList - the walkers (by name).
+     * @param threadCount - threads for requests (and for steps).
+     * @param maxWaitSeconds - the longest a status request can wait.
+     * @param newLogger - valid logger.
+     * @throws IOException - if the port can't be listened on.
+     */
+    public WalkControlServer(String theBindAddress,
+            int thePort,
+            List<RemoteWalker> theWalkerList,
+            int threadCount,
+            int maxWaitSeconds,
+            Logger newLogger) throws IOException {
+        theLogger = newLogger;
+        maxWaitMillis = maxWaitSeconds * 1000L;
+
+        for (final RemoteWalker theWalker : theWalkerList) {
+            theWalkers.put(theWalker.getName(), theWalker);
+            theWalker.setChangeListener(new Runnable() {
+
+                public void run() {
+                    answerPolls(theWalker, false);
+                }
+            });
+        }
+
+        theExecutor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        commandExec = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        pollExec = Executors.newSingleThreadScheduledExecutor();
+        pollExec.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                answerPolls(null, true);
+            }
+        }, POLL_CHECK_MILLIS, POLL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        theServer = HttpServer.create(new InetSocketAddress(theBindAddress, thePort), 0);
+        theServer.createContext("/walkers", new WalkersHandler());
+        theServer.setExecutor(theExecutor);
+        theServer.start();
+        theLogger.log(Level.INFO, "Walker control on {0}:{1}",
+                new Object[]{theBindAddress, Integer.toString(thePort)});
+    }
+
+    /**
+     * Stops the server (waiting status requests are answered first, on this
+     * thread - the executor is about to go).
+     */
+    public void stop() {
+        pollExec.shutdownNow();
+
+        for (PendingPoll thePoll : takePolls(null, false)) {
+            sendQuietly(thePoll.theExchange, 200, thePoll.theWalker.getStatusJSON());
+        }
+
+        theServer.stop(0);
+        theExecutor.shutdownNow();
+        commandExec.shutdownNow();
+    }
+
+    /**
+     * Stops the server and shuts down the walkers.
+     */
+    public void shutdown() {
+        stop();
+
+        for (RemoteWalker theWalker : theWalkers.values()) {
+            theWalker.getController().shutdown();
+        }
+    }
+
+    /**
+     * Answers the waiting status requests that can be answered.
+     * @param theWalker - the walker that has changed (null for all).
+     * @param onlyExpired - whether to answer only those whose wait is up.
+     */
+    private void answerPolls(RemoteWalker theWalker,
+            boolean onlyExpired) {
+        for (final PendingPoll thePoll : takePolls(theWalker, onlyExpired)) {
+            try {
+                // not on the walker's thread
+                theExecutor.execute(new Runnable() {
+
+                    public void run() {
+                        sendQuietly(thePoll.theExchange, 200, thePoll.theWalker.getStatusJSON());
+                    }
+                });
+            } catch (RuntimeException ex) {
+                // stopping
+                thePoll.theExchange.close();
+            }
+        }
+    }
+
+    /**
+     * Removes the waiting status requests that can be answered.
+     * @param theWalker - as for answerPolls.
+     * @param onlyExpired - as for answerPolls.
+     * @return - the requests to answer.
+     */
+    private List<PendingPoll> takePolls(RemoteWalker theWalker,
+            boolean onlyExpired) {
+        List<PendingPoll> theAnswered = new ArrayList<PendingPoll>();
+        long theTime = System.currentTimeMillis();
+
+        synchronized (thePolls) {
+            Iterator<PendingPoll> theIterator = thePolls.iterator();
+
+            while (theIterator.hasNext()) {
+                PendingPoll thePoll = theIterator.next();
+
+                if (onlyExpired ? theTime >= thePoll.theDeadline
+                        : (theWalker == null || (thePoll.theWalker == theWalker
+                        && theWalker.getVersion() > thePoll.theSince))) {
+                    theIterator.remove();
+                    theAnswered.add(thePoll);
+                }
+            }
+        }
+
+        return theAnswered;
+    }
+
+    private void sendQuietly(HttpExchange theExchange,
+            int theStatus,
+            String theJSON) {
+        try {
+            send(theExchange, theStatus, theJSON);
+        } catch (IOException ex) {
+            theLogger.log(Level.INFO, "Control client gone", ex);
+        }
+    }
+
+    private static void send(HttpExchange theExchange,
+            int theStatus,
+            String theJSON) throws IOException {
+        byte[] theBytes = theJSON.getBytes("UTF-8");
+        theExchange.getResponseHeaders().set("Content-Type", "application/json");
+        theExchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        theExchange.sendResponseHeaders(theStatus, theBytes.length);
+        OutputStream os = theExchange.getResponseBody();
+
+        try {
+            os.write(theBytes);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static String error(String theMessage) {
+        return "{\"error\":" + JSON.quote(theMessage) + "}";
+    }
+
+    private static Map<String, String> parseQuery(String theQuery) {
+        Map<String, String> theParameters = new HashMap<String, String>();
+
+        if (theQuery != null) {
+            for (String thePair : theQuery.split("&")) {
+                int theEquals = thePair.indexOf('=');
+
+                if (theEquals > 0) {
+                    theParameters.put(thePair.substring(0, theEquals), thePair.substring(theEquals + 1));
+                }
+            }
+        }
+
+        return theParameters;
+    }
+
+    private class WalkersHandler implements HttpHandler {
+
+        public void handle(HttpExchange theExchange) throws IOException {
+            String[] thePath = theExchange.getRequestURI().getPath().split("/");
+            String theMethod = theExchange.getRequestMethod();
+            Map<String, String> theParameters = parseQuery(theExchange.getRequestURI().getRawQuery());
+
+            try {
+                // thePath[0] is empty and thePath[1] is "walkers"
+                if (thePath.length <= 2) {
+                    StringBuilder theJSON = new StringBuilder("[");
+
+                    for (RemoteWalker theWalker : theWalkers.values()) {
+                        if (theJSON.length() > 1) {
+                            theJSON.append(',');
+                        }
+
+                        theJSON.append(theWalker.getStatusJSON());
+                    }
+
+                    send(theExchange, 200, theJSON.append(']').toString());
+                    return;
+                }
+
+                RemoteWalker theWalker = theWalkers.get(thePath[2]);
+
+                if (theWalker == null) {
+                    send(theExchange, 404, error("no walker " + thePath[2]));
+                    return;
+                }
+
+                String theAction = (thePath.length > 3) ? thePath[3] : "status";
+                boolean isPost = theMethod.equalsIgnoreCase("POST");
+
+                if (theAction.equals("status") && !isPost) {
+                    handleStatus(theExchange, theWalker, theParameters);
+                } else if (theAction.equals("position") && !isPost) {
+                    send(theExchange, 200, theWalker.getPositionJSON());
+                } else if (theAction.equals("metrics") && !isPost) {
+                    send(theExchange, 200, theWalker.getMetricsJSON());
+                } else if (!isPost) {
+                    send(theExchange, 405, error(theAction + " needs POST"));
+                } else if (theAction.equals("play")) {
+                    theWalker.play();
+                    send(theExchange, 202, theWalker.getStatusJSON());
+                } else if (theAction.equals("pause")) {
+                    theWalker.pause();
+                    send(theExchange, 202, theWalker.getStatusJSON());
+                } else if (theAction.equals("stop")) {
+                    theWalker.stop(commandExec);
+                    send(theExchange, 202, theWalker.getStatusJSON());
+                } else if (theAction.equals("stepTo")) {
+                    theWalker.stepTo(Integer.parseInt(theParameters.get("pos")), commandExec);
+                    send(theExchange, 202, theWalker.getStatusJSON());
+                } else {
+                    send(theExchange, 404, error("no action " + theAction));
+                }
+            } catch (NumberFormatException ex) {
+                send(theExchange, 400, error("bad number"));
+            } catch (RuntimeException ex) {
+                theLogger.log(Level.WARNING, "Control request failed", ex);
+                send(theExchange, 500, error(ex.toString()));
+            }
+        }
+
+        /**
+         * Answers now, or puts the request aside until the walker changes
+         * after the version asked about (or the wait is up).
+         */
+        private void handleStatus(HttpExchange theExchange,
+                RemoteWalker theWalker,
+                Map<String, String> theParameters) throws IOException {
+            String theSince = theParameters.get("since");
+
+            if (theSince != null) {
+                long theWaitMillis = Math.min(maxWaitMillis,
+                        Long.parseLong(theParameters.containsKey("wait")
+                        ? theParameters.get("wait") : "30") * 1000);
+
+                synchronized (thePolls) {
+                    if (theWalker.getVersion() <= Long.parseLong(theSince)) {
+                        thePolls.add(new PendingPoll(theExchange, theWalker, Long.parseLong(theSince),
+                                System.currentTimeMillis() + theWaitMillis));
+                        return;
+                    }
+                }
+            }
+
+            send(theExchange, 200, theWalker.getStatusJSON());
+        }
+    }
+
+    /**
+     * Makes a walker for each of the trail files (TrailFiles), named walk1,
+     * walk2 ... and serves the API for them (Main --control). The walkers
+     * wait to be told to play.
+     * @param properties - as for the walks plus ControlBindAddress (default
+     * 127.0.0.1), ControlPort, ControlThreads and ControlMaxWaitSeconds.
+     * @param theLogger - valid logger.
+     * @return - the server.
+     * @throws IOException - if the port can't be listened on.
+     */
+    public static WalkControlServer serve(Properties properties,
+            Logger theLogger) throws IOException {
+        List<String> theTrailNames = WalkSupervisor.getTrailFiles(properties);
+        List<RemoteWalker> theWalkerList = new ArrayList<RemoteWalker>();
+
+        for (int i = 0; i < theTrailNames.size(); ++i) {
+            WebWalkController theController = new WebWalkController(
+                    WalkSupervisor.getWalkProperties(properties, i, theTrailNames.get(i)), theLogger);
+            theWalkerList.add(new RemoteWalker("walk" + (i + 1), theTrailNames.get(i),
+                    theController, theLogger));
+        }
+
+        int thePort = Integer.parseInt(properties.getProperty("ControlPort", "0").trim());
+
+        return new WalkControlServer(properties.getProperty("ControlBindAddress", "127.0.0.1").trim(),
+                (thePort > 0) ? thePort : 7080, theWalkerList,
+                Integer.parseInt(properties.getProperty("ControlThreads", "4").trim()),
+                Integer.parseInt(properties.getProperty("ControlMaxWaitSeconds", "60").trim()),
+                theLogger);
+    }
+}
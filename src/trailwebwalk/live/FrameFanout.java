@@ -0,0 +1,212 @@
+package trailwebwalk.live;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import trailwebwalk.capture.PostProcessor;
+
+/**
+ *
+ * @author al
+ * Hands the latest captured frame to any number of viewers. Each frame is
+ * encoded as a JPEG once (on the fanout's own thread) and the same bytes are
+ * given to every viewer. Each viewer holds at most one frame that it has not
+ * sent yet; a viewer that is too slow has that frame replaced by the newer one
+ * (it is dropped) so no viewer can hold up the walk or the others.
+ * @invariant - the Logger is a valid logger.
+ * @invariant - the JPEG bytes handed out are never changed.
+ */
+public class FrameFanout implements Runnable {
+
+    private final int jpegQuality;
+    private final Logger theLogger;
+    private final List<Viewer> theViewers = new CopyOnWriteArrayList<Viewer>();
+    private final Thread encoderThread;
+    private byte[] pendingImage = null; // guarded by this
+    private volatile byte[] latestJPEG = null;
+    private volatile boolean isClosed = false;
+    private volatile int encodedCount = 0;
+    private volatile int skippedCount = 0;
+
+    /**
+     *
+     * @param jpegQuality - 1-100.
+     * @param newLogger - valid logger.
+     */
+    public FrameFanout(int jpegQuality,
+            Logger newLogger) {
+        this.jpegQuality = jpegQuality;
+        theLogger = newLogger;
+        encoderThread = new Thread(this, "FrameFanout");
+        encoderThread.setDaemon(true);
+        encoderThread.start();
+    }
+
+    /**
+     * Offers a captured frame. Does not wait for the encoding - if the last
+     * frame offered has not been encoded yet it is replaced.
+     * @param theImageBytes - encoded image (not copied, must not be changed).
+     */
+    public synchronized void offer(byte[] theImageBytes) {
+        if (pendingImage != null) {
+            ++skippedCount;
+        }
+
+        pendingImage = theImageBytes;
+        notifyAll();
+    }
+
+    /**
+     *
+     * @return - the latest frame as a JPEG (or null if there has not been
+     * one). The bytes must not be changed.
+     */
+    public byte[] getLatestJPEG() {
+        return latestJPEG;
+    }
+
+    /**
+     *
+     * @return - a new viewer (which gets the latest frame straight away).
+     */
+    public Viewer addViewer() {
+        Viewer theViewer = new Viewer();
+        byte[] theLatest = latestJPEG;
+
+        if (theLatest != null) {
+            theViewer.deliver(theLatest);
+        }
+
+        theViewers.add(theViewer);
+
+        return theViewer;
+    }
+
+    public void removeViewer(Viewer theViewer) {
+        theViewers.remove(theViewer);
+        theViewer.close();
+    }
+
+    public int getViewerCount() {
+        return theViewers.size();
+    }
+
+    public int getEncodedCount() {
+        return encodedCount;
+    }
+
+    /**
+     * Stops the encoder and the viewers.
+     */
+    public void close() {
+        isClosed = true;
+        encoderThread.interrupt();
+
+        for (Viewer theViewer : theViewers) {
+            theViewer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        int theDroppedCount = 0;
+
+        for (Viewer theViewer : theViewers) {
+            theDroppedCount += theViewer.getDroppedCount();
+        }
+
+        return "FrameFanout{" + "viewers=" + theViewers.size() + ", encoded=" + encodedCount
+                + ", skipped=" + skippedCount + ", viewerDrops=" + theDroppedCount + '}';
+    }
+
+    public void run() {
+        while (!isClosed) {
+            byte[] theImage;
+
+            synchronized (this) {
+                while (pendingImage == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+
+                theImage = pendingImage;
+                pendingImage = null;
+            }
+
+            try {
+                byte[] theJPEG = PostProcessor.encodeJPEG(theImage, jpegQuality);
+                latestJPEG = theJPEG;
+                ++encodedCount;
+
+                for (Viewer theViewer : theViewers) {
+                    theViewer.deliver(theJPEG);
+                }
+            } catch (IOException ex) {
+                theLogger.log(Level.WARNING, "Failed to encode live frame", ex);
+            }
+        }
+    }
+
+    /**
+     * A viewer's one-frame mailbox.
+     */
+    public static class Viewer {
+
+        private byte[] nextFrame = null;
+        private boolean isClosed = false;
+        private int droppedCount = 0;
+
+        synchronized void deliver(byte[] theJPEG) {
+            if (nextFrame != null) {
+                ++droppedCount;
+            }
+
+            nextFrame = theJPEG;
+            notifyAll();
+        }
+
+        /**
+         *
+         * @param timeoutMillis
+         * @return - the next frame (null if there was none in time or the
+         * viewer has been closed).
+         * @throws InterruptedException
+         */
+        public synchronized byte[] take(long timeoutMillis) throws InterruptedException {
+            long theEndTime = System.currentTimeMillis() + timeoutMillis;
+
+            while (nextFrame == null && !isClosed) {
+                long theWait = theEndTime - System.currentTimeMillis();
+
+                if (theWait <= 0) {
+                    return null;
+                }
+
+                wait(theWait);
+            }
+
+            byte[] theFrame = nextFrame;
+            nextFrame = null;
+
+            return theFrame;
+        }
+
+        public synchronized boolean isClosed() {
+            return isClosed;
+        }
+
+        synchronized void close() {
+            isClosed = true;
+            notifyAll();
+        }
+
+        synchronized int getDroppedCount() {
+            return droppedCount;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package trailwebwalk.live;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author al
+ * Small HTTP server so that other screens can mirror the walk:
+ *   /latest.jpg - the latest frame.
+ *   /stream.mjpg - MJPEG stream of the frames as they are captured.
+ * The frames come from a FrameFanout so viewers add no capture work.
+ * @invariant - the Logger is a valid logger.
+ */
+public class LiveFrameServer {
+
+    private static final String BOUNDARY = "trailwebwalkframe";
+    private static final long KEEP_ALIVE_MILLIS = 10000; // resend the latest frame if nothing new
+    private final FrameFanout theFanout;
+    private final int maxViewers;
+    private final Logger theLogger;
+    private final HttpServer theServer;
+    private final ExecutorService theExecutor;
+
+    /**
+     *
+     * @param theBindAddress - address to listen on (e.g. 127.0.0.1 for this
+     * machine only, 0.0.0.0 for all interfaces).
+     * @param thePort - port to listen on.
+     * @param theFanout - where the frames come from.
+     * @param maxViewers - the most streams at once.
+     * @param newLogger - valid logger.
+     * @throws IOException - if the port can't be listened on.
+     */
+    public LiveFrameServer(String theBindAddress,
+            int thePort,
+            FrameFanout theFanout,
+            int maxViewers,
+            Logger newLogger) throws IOException {
+        this.theFanout = theFanout;
+        this.maxViewers = maxViewers;
+        theLogger = newLogger;
+        theServer = HttpServer.create(new InetSocketAddress(theBindAddress, thePort), 0);
+        theServer.createContext("/latest.jpg", new LatestHandler());
+        theServer.createContext("/stream.mjpg", new StreamHandler());
+        theExecutor = Executors.newCachedThreadPool();
+        theServer.setExecutor(theExecutor);
+        theServer.start();
+        theLogger.log(Level.INFO, "Live frames on {0}:{1}",
+                new Object[]{theBindAddress, Integer.toString(thePort)});
+    }
+
+    /**
+     * Stops the server (and the streams).
+     */
+    public void stop() {
+        theFanout.close();
+        theServer.stop(0);
+        theExecutor.shutdownNow();
+        theLogger.log(Level.INFO, "Live frames stopped: {0}", theFanout);
+    }
+
+    private static void sendError(HttpExchange theExchange,
+            int theStatus) throws IOException {
+        theExchange.sendResponseHeaders(theStatus, -1);
+        theExchange.close();
+    }
+
+    private class LatestHandler implements HttpHandler {
+
+        public void handle(HttpExchange theExchange) throws IOException {
+            byte[] theJPEG = theFanout.getLatestJPEG();
+
+            if (theJPEG == null) {
+                sendError(theExchange, 404);
+                return;
+            }
+
+            theExchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            theExchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            theExchange.sendResponseHeaders(200, theJPEG.length);
+            OutputStream os = theExchange.getResponseBody();
+
+            try {
+                os.write(theJPEG);
+            } finally {
+                os.close();
+            }
+        }
+    }
+
+    private class StreamHandler implements HttpHandler {
+
+        public void handle(HttpExchange theExchange) throws IOException {
+            if (theFanout.getViewerCount() >= maxViewers) {
+                sendError(theExchange, 503);
+                return;
+            }
+
+            FrameFanout.Viewer theViewer = theFanout.addViewer();
+            theExchange.getResponseHeaders().set("Content-Type",
+                    "multipart/x-mixed-replace; boundary=" + BOUNDARY);
+            theExchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            theExchange.sendResponseHeaders(200, 0);
+            OutputStream os = theExchange.getResponseBody();
+
+            try {
+                while (!theViewer.isClosed()) {
+                    byte[] theJPEG = theViewer.take(KEEP_ALIVE_MILLIS);
+
+                    if (theJPEG == null) {
+                        theJPEG = theFanout.getLatestJPEG();
+
+                        if (theJPEG == null) {
+                            continue;
+                        }
+                    }
+
+                    os.write(("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                            + theJPEG.length + "\r\n\r\n").getBytes("US-ASCII"));
+                    os.write(theJPEG);
+                    os.write("\r\n".getBytes("US-ASCII"));
+                    os.flush();
+                }
+            } catch (InterruptedException ex) {
+                // server stopping
+            } catch (IOException ex) {
+                // viewer has gone
+            } finally {
+                theFanout.removeViewer(theViewer);
+
+                try {
+                    os.close();
+                } catch (IOException ex) {
+                    // already gone
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package trailwebwalk.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ *
+ * @author al
+ * Display that the walker thread can update without touching Swing - the
+ * latest status text, trail position and play/pause change are kept
+ * (atomically, without locks) and applied to the Swing displays on the event
+ * dispatch thread, at most once a frame. Updates in between replace each
+ * other so only the latest state is drawn.
+ * @invariant - the Swing displays are only used on the event dispatch thread.
+ */
+public class CoalescingDisplay implements WalkStatusDisplay, PlayPauseDisplay, ListItemSelector {
+
+    private static final int FRAME_MILLIS = 40;
+    private static final int NO_ITEM = Integer.MIN_VALUE;
+    private final WalkStatusDisplay theStatusDisplay;
+    private final PlayPauseDisplay thePlayPauseDisplay;
+    private final ListItemSelector theListItemSelector;
+    private final AtomicReference<String> pendingText = new AtomicReference<String>(null);
+    private final AtomicInteger pendingItem = new AtomicInteger(NO_ITEM);
+    private final AtomicBoolean pendingToPlay = new AtomicBoolean(false);
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private volatile String theText = "";
+    private long lastAppliedMillis = 0; // EDT only
+    private final Runnable theApplier = new Runnable() {
+
+        public void run() {
+            applyWhenDue();
+        }
+    };
+
+    /**
+     *
+     * @param theStatusDisplay - Swing status display.
+     * @param thePlayPauseDisplay - Swing play/pause display.
+     * @param theListItemSelector - Swing trail list.
+     */
+    public CoalescingDisplay(WalkStatusDisplay theStatusDisplay,
+            PlayPauseDisplay thePlayPauseDisplay,
+            ListItemSelector theListItemSelector) {
+        this.theStatusDisplay = theStatusDisplay;
+        this.thePlayPauseDisplay = thePlayPauseDisplay;
+        this.theListItemSelector = theListItemSelector;
+    }
+
+    public String getText() {
+        return theText;
+    }
+
+    public void setText(String newText) {
+        theText = newText;
+        pendingText.set(newText);
+        schedule();
+    }
+
+    public void setToPlay() {
+        pendingToPlay.set(true);
+        schedule();
+    }
+
+    public void selectItem(int itemNo) {
+        pendingItem.set(itemNo);
+        schedule();
+    }
+
+    /**
+     * Asks for the pending state to be applied (unless that has already been
+     * asked for).
+     */
+    private void schedule() {
+        if (isScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(theApplier);
+        }
+    }
+
+    /**
+     * On the EDT - applies the pending state now or, if the last was less
+     * than a frame ago, when the frame is up.
+     */
+    private void applyWhenDue() {
+        long theWait = lastAppliedMillis + FRAME_MILLIS - System.currentTimeMillis();
+
+        if (theWait > 0) {
+            Timer theTimer = new Timer((int) theWait, new ActionListener() {
+
+                public void actionPerformed(ActionEvent e) {
+                    apply();
+                }
+            });
+            theTimer.setRepeats(false);
+            theTimer.start();
+        } else {
+            apply();
+        }
+    }
+
+    private void apply() {
+        // cleared first so that an update made while applying is applied later
+        isScheduled.set(false);
+        lastAppliedMillis = System.currentTimeMillis();
+        String theNewText = pendingText.getAndSet(null);
+        int theNewItem = pendingItem.getAndSet(NO_ITEM);
+
+        if (theNewText != null) {
+            theStatusDisplay.setText(theNewText);
+        }
+
+        if (theNewItem != NO_ITEM) {
+            theListItemSelector.selectItem(theNewItem);
+        }
+
+        if (pendingToPlay.getAndSet(false)) {
+            thePlayPauseDisplay.setToPlay();
+        }
+    }
+}
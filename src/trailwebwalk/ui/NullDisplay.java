@@ -0,0 +1,25 @@
+package trailwebwalk.ui;
+
+/**
+ *
+ * @author al
+ * Display for running without a UI (batch mode) - the status text is kept
+ * (so it can be reported at the end) and everything else is ignored.
+ */
+public class NullDisplay implements WalkStatusDisplay, PlayPauseDisplay, ListItemSelector {
+    private volatile String theText = "";
+
+    public String getText() {
+        return theText;
+    }
+
+    public void setText(String theText) {
+        this.theText = theText;
+    }
+
+    public void setToPlay() {
+    }
+
+    public void selectItem(int itemNo) {
+    }
+}
@@ -34,7 +34,6 @@ public class WebTrailWalkUI extends JFrame {
     private JButton nextButton;
     private JButton previousButton;
     private JList trailList;
-    private Thread taskThread = null;
     private PlayPauseListener thePlayPauseListener = null;
     private StopListener theStopListener = null;
     private NextListener theNextListener = null;
@@ -70,11 +69,14 @@ public class WebTrailWalkUI extends JFrame {
         setLocation(1050, 550);          
                 
         WalkStatusDisplay theStatusDisplay = new JLabelWrapper(statusLabel);
-        theController.setNotificationDisplay(theStatusDisplay);
         PlayPauseDisplay thePlayPauseDisplay = new JButtonWrapper(playPauseButton, playIcon);
-        theController.setPlayPauseDisplay(thePlayPauseDisplay);
         ListItemSelector theListItemSelector = new JListWrapper(trailList);
-        theController.setListItemSelector(theListItemSelector);
+        // the walker thread's updates reach Swing on the EDT (latest only, once a frame)
+        CoalescingDisplay theDisplay = new CoalescingDisplay(theStatusDisplay,
+                thePlayPauseDisplay, theListItemSelector);
+        theController.setNotificationDisplay(theDisplay);
+        theController.setPlayPauseDisplay(theDisplay);
+        theController.setListItemSelector(theDisplay);
         
         setEnableNextPrevButtons(true);
         setVisible(true);
@@ -115,22 +117,14 @@ public class WebTrailWalkUI extends JFrame {
     }
 
     public boolean isPlaying() {
-        if (taskThread != null
-                && taskThread.isAlive()) {
-            return true;
-        } else {
-            return false;
-        }
+        return theController != null && theController.isWalking();
     }
 
     private void walk() {
         if (isPlaying()) {
             System.out.println("Thread is running - not starting new task");
         } else {
-            taskThread = new Thread(theController);
-
-            taskThread.setPriority(Thread.NORM_PRIORITY);
-            taskThread.start();
+            theController.play();
         }
     }
 